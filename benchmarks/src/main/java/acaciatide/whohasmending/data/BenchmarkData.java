@@ -0,0 +1,83 @@
+package acaciatide.whohasmending.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * ベンチマーク用の合成データと一時ディレクトリを用意する
+ */
+final class BenchmarkData {
+    private static final String[] ENCHANTMENTS = {
+            "Mending", "Unbreaking", "Efficiency", "Sharpness", "Protection", "Fortune", "Silk Touch", "Looting"
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * データを置く一時ディレクトリを作成
+     */
+    static Path createTempDirectory() {
+        try {
+            return Files.createTempDirectory("whohasmending-bench");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 一時ディレクトリを削除
+     */
+    static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 乱数のUUIDを作成（シード固定で毎回同じ並び）
+     */
+    static List<UUID> uuids(int count, long seed) {
+        Random random = new Random(seed);
+        List<UUID> uuids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            uuids.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        return uuids;
+    }
+
+    /**
+     * キャプチャ後と同じ形の村人データを作成（約1/7はエンチャント本なし）
+     */
+    static VillagerTradeData villager(UUID uuid, Random random) {
+        VillagerTradeData data = new VillagerTradeData(uuid, "librarian");
+        if (random.nextInt(7) != 0) {
+            String enchantment = ENCHANTMENTS[random.nextInt(ENCHANTMENTS.length)];
+            data.addTrade(new TradeEntry("Enchanted Book", enchantment, 1 + random.nextInt(5), 5 + random.nextInt(60)));
+        }
+        data.updateDisplayName();
+        return data;
+    }
+
+    /**
+     * 指定件数の村人データを持つテーブルを作成
+     */
+    static VillagerDataTable table(List<UUID> uuids) {
+        Random random = new Random(uuids.size());
+        VillagerDataTable table = new VillagerDataTable(uuids.size());
+        for (UUID uuid : uuids) {
+            table.put(uuid, villager(uuid, random));
+        }
+        return table;
+    }
+}
@@ -0,0 +1,43 @@
+package acaciatide.whohasmending.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TradeEntry.getDisplayTextの計測
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisplayTextBenchmark {
+
+    // レベル1はローマ数字なし、5はローマ数字あり
+    @Param({"1", "5"})
+    private int level;
+
+    private TradeEntry entry;
+
+    @Setup
+    public void setUp() {
+        entry = new TradeEntry("Enchanted Book", "Sharpness", level, 30);
+    }
+
+    @Benchmark
+    public String displayText() {
+        return entry.getDisplayText();
+    }
+}
@@ -0,0 +1,92 @@
+package acaciatide.whohasmending.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描画時の村人データ参照の計測（VillagerDataManager / VillagerDataTable / 従来のHashMap）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int entries;
+
+    private VillagerDataTable table;
+    private Map<UUID, VillagerTradeData> hashMap;
+    private VillagerDataManager manager;
+
+    // 描画時と同じく、テーブルのキーとは別インスタンスのUUIDで引く
+    private UUID[] hits;
+    private UUID[] misses;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<UUID> uuids = BenchmarkData.uuids(entries, 42);
+        table = BenchmarkData.table(uuids);
+        hashMap = new HashMap<>(table);
+
+        manager = VillagerDataManager.getInstance();
+        manager.publish(table);
+
+        hits = new UUID[uuids.size()];
+        for (int i = 0; i < hits.length; i++) {
+            UUID uuid = uuids.get(i);
+            hits[i] = new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        }
+        misses = BenchmarkData.uuids(entries, 7).toArray(new UUID[0]);
+    }
+
+    private int next() {
+        int i = index;
+        index = i + 1 == hits.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public VillagerTradeData managerHit() {
+        return manager.getVillagerData(hits[next()]);
+    }
+
+    @Benchmark
+    public VillagerTradeData tableHit() {
+        return table.get(hits[next()]);
+    }
+
+    @Benchmark
+    public VillagerTradeData tableMiss() {
+        return table.get(misses[next()]);
+    }
+
+    @Benchmark
+    public VillagerTradeData hashMapHit() {
+        return hashMap.get(hits[next()]);
+    }
+
+    @Benchmark
+    public VillagerTradeData hashMapMiss() {
+        return hashMap.get(misses[next()]);
+    }
+}
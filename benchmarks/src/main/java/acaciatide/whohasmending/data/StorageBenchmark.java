@@ -0,0 +1,73 @@
+package acaciatide.whohasmending.data;
+
+import acaciatide.whohasmending.config.WhohasmendingConfig.StorageEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 保存形式ごとのストアの読み込み・保存の計測
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+    private static final String WORLD_ID = "world_benchmark";
+
+    @Param({"1000", "10000", "100000"})
+    private int records;
+
+    @Param({"json", "binary", "memory"})
+    private String engine;
+
+    private Path directory;
+    private VillagerStore store;
+    private Map<UUID, VillagerTradeData> data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = BenchmarkData.createTempDirectory();
+        StorageEngine storageEngine = StorageEngine.valueOf(engine.toUpperCase(Locale.ROOT));
+        VillagerStoreFactory factory = storageEngine == StorageEngine.MEMORY
+                ? VillagerStoreFactory.memory()
+                : VillagerStoreFactory.files(directory, storageEngine, Long.MAX_VALUE);
+        store = factory.open(WORLD_ID);
+        data = BenchmarkData.table(BenchmarkData.uuids(records, 42));
+        // 読み込み計測用のファイルを用意する
+        store.snapshot(data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public Map<UUID, VillagerTradeData> load() {
+        return store.load();
+    }
+
+    @Benchmark
+    public void save() {
+        store.snapshot(data);
+    }
+}
@@ -0,0 +1,103 @@
+package acaciatide.whohasmending.capture;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.entity.Entity;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * プレイヤーが話しかけたエンティティと、それによって開いた取引画面を結び付けるクラス
+ * 話しかけた時にエンティティIDを覚えておき、取引画面を開くパケットが届いた時にそのコンテナIDと対応付ける
+ * 取引相手の特定はIDの比較とエンティティIDでの参照だけで済み、周りに村人が密集していても取り違えない
+ * 話しかけても取引画面が開かなかった場合（子供の村人やニトウィットなど）に後の取引画面と取り違えないよう、
+ * 話しかけた記録は一定時間で失効させ、取引画面以外の画面が開いた時にも捨てる
+ * パケット処理と操作はどちらもクライアントスレッドで行われるため、同期は不要
+ */
+public class MerchantInteractionTracker {
+    private static final int NONE = -1;
+
+    // 話しかけてから取引画面を開くパケットが届くまでに待つ時間（サーバーの遅延を見込む）
+    static final long INTERACTION_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final MerchantInteractionTracker INSTANCE = new MerchantInteractionTracker();
+
+    // 最後に話しかけたエンティティ（まだ取引画面と対応付いていないもの）
+    private int interactedEntityId = NONE;
+    private long interactedAtNanos;
+
+    // 開いている取引画面のコンテナIDと、その取引相手
+    private int containerId = NONE;
+    private int merchantEntityId = NONE;
+
+    private MerchantInteractionTracker() {
+    }
+
+    public static MerchantInteractionTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * プレイヤーがエンティティに話しかけた時に呼び出す
+     */
+    public void onInteract(Entity entity) {
+        onInteract(entity.getId(), System.nanoTime());
+    }
+
+    void onInteract(int entityId, long nowNanos) {
+        interactedEntityId = entityId;
+        interactedAtNanos = nowNanos;
+    }
+
+    /**
+     * 取引画面を開くパケットが届いた時に呼び出す
+     */
+    public void onMerchantScreenOpened(int containerId) {
+        onMerchantScreenOpened(containerId, System.nanoTime());
+    }
+
+    void onMerchantScreenOpened(int containerId, long nowNanos) {
+        this.containerId = containerId;
+        // 話しかけてから時間が経っている場合は、この取引画面とは関係ない
+        this.merchantEntityId = interactedEntityId != NONE && nowNanos - interactedAtNanos <= INTERACTION_TIMEOUT_NANOS
+                ? interactedEntityId : NONE;
+        this.interactedEntityId = NONE;
+    }
+
+    /**
+     * 取引画面以外の画面を開くパケットが届いた時に呼び出す
+     * 話しかけた記録はこの画面で使われたものとして捨てる（開いている取引画面の対応付けは残す）
+     */
+    public void onOtherScreenOpened() {
+        interactedEntityId = NONE;
+    }
+
+    /**
+     * 取引画面の取引相手を取得
+     * @param containerId 取引画面のコンテナID
+     * @return 対応付いていない場合やエンティティが既にいない場合null
+     */
+    public Entity getMerchant(Minecraft client, int containerId) {
+        int entityId = getMerchantEntityId(containerId);
+        if (entityId == NONE || client.level == null) {
+            return null;
+        }
+        return client.level.getEntity(entityId);
+    }
+
+    /**
+     * 取引画面の取引相手のエンティティID
+     * @return 対応付いていない場合-1
+     */
+    int getMerchantEntityId(int containerId) {
+        return containerId == this.containerId ? merchantEntityId : NONE;
+    }
+
+    /**
+     * ワールドを離れた時に呼び出す
+     */
+    public void clear() {
+        interactedEntityId = NONE;
+        containerId = NONE;
+        merchantEntityId = NONE;
+    }
+}
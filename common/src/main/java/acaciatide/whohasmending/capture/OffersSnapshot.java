@@ -0,0 +1,84 @@
+package acaciatide.whohasmending.capture;
+
+import java.util.UUID;
+
+/**
+ * 取引オファーを受け取った時点の、記録に必要な値だけを取り出したもの
+ * 名前の翻訳はクライアントスレッドで済ませ、ゲームのオブジェクトへの参照は持たない
+ * 変更しない値オブジェクトとして扱う
+ */
+public final class OffersSnapshot {
+    private final String worldId;
+    private final UUID villagerUuid;
+    // 現在の言語設定で翻訳した職業名
+    private final String professionName;
+
+    // 一番上のエンチャント本（なければitemNameがnull）
+    private final String itemName;
+    private final String enchantmentName;
+    private final String enchantmentId;
+    private final int enchantmentLevel;
+    private final int emeraldCost;
+
+    public OffersSnapshot(String worldId, UUID villagerUuid, String professionName, String itemName,
+                          String enchantmentName, String enchantmentId, int enchantmentLevel, int emeraldCost) {
+        this.worldId = worldId;
+        this.villagerUuid = villagerUuid;
+        this.professionName = professionName;
+        this.itemName = itemName;
+        this.enchantmentName = enchantmentName;
+        this.enchantmentId = enchantmentId;
+        this.enchantmentLevel = enchantmentLevel;
+        this.emeraldCost = emeraldCost;
+    }
+
+    /**
+     * オファーを受け取った時のワールド（ワールドを移った後に届いた分を捨てるため）
+     */
+    public String getWorldId() {
+        return worldId;
+    }
+
+    public UUID getVillagerUuid() {
+        return villagerUuid;
+    }
+
+    public String getProfessionName() {
+        return professionName;
+    }
+
+    /**
+     * エンチャント本を売っているか
+     */
+    public boolean hasBook() {
+        return itemName != null;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    /**
+     * 翻訳したエンチャント名（レベル表記なし）
+     * @return エンチャントが付いていない場合null
+     */
+    public String getEnchantmentName() {
+        return enchantmentName;
+    }
+
+    /**
+     * エンチャントのレジストリID（"minecraft:mending"）
+     * @return エンチャントが付いていない場合null
+     */
+    public String getEnchantmentId() {
+        return enchantmentId;
+    }
+
+    public int getEnchantmentLevel() {
+        return enchantmentLevel;
+    }
+
+    public int getEmeraldCost() {
+        return emeraldCost;
+    }
+}
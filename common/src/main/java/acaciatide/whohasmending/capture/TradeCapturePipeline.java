@@ -0,0 +1,181 @@
+package acaciatide.whohasmending.capture;
+
+import acaciatide.whohasmending.Whohasmending;
+import acaciatide.whohasmending.data.TradeEntry;
+import acaciatide.whohasmending.data.VillagerDataManager;
+import acaciatide.whohasmending.data.VillagerTradeData;
+import acaciatide.whohasmending.jfr.CaptureEvent;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 取引オファーのスナップショットをキャプチャスレッドで記録に変換するパイプライン
+ * クライアントスレッドは翻訳済みの文字列をスナップショットにして積むだけで、データの作成・フィンガープリントの比較・索引の更新・保存はキャプチャスレッドで行う
+ * キューは上限付きで、同じ村人のスナップショットが処理前に複数届いた場合は最新のものだけを処理する
+ */
+public class TradeCapturePipeline {
+    // 処理待ちにできる村人の数（これを超えた分は捨てる）
+    private static final int QUEUE_CAPACITY = 64;
+
+    private static final TradeCapturePipeline INSTANCE = new TradeCapturePipeline();
+
+    // 処理待ちの村人（順番）と、村人ごとの最新のスナップショット
+    private final BlockingQueue<UUID> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ConcurrentMap<UUID, OffersSnapshot> pending = new ConcurrentHashMap<>();
+
+    // キューの状況
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+
+    private Thread worker;
+
+    private TradeCapturePipeline() {
+    }
+
+    public static TradeCapturePipeline getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * スナップショットを処理待ちに積む（呼び出し元はブロックしない）
+     * @return キューが一杯で捨てた場合false
+     */
+    public boolean submit(OffersSnapshot snapshot) {
+        ensureStarted();
+        submitted.incrementAndGet();
+
+        UUID uuid = snapshot.getVillagerUuid();
+        if (pending.put(uuid, snapshot) != null) {
+            // 処理前の古いスナップショットを置き換えた（キューには既に積まれている）
+            coalesced.incrementAndGet();
+            return true;
+        }
+        if (!queue.offer(uuid)) {
+            pending.remove(uuid, snapshot);
+            dropped.incrementAndGet();
+            Whohasmending.LOGGER.warn("Trade capture queue is full, dropped capture for villager {}", uuid);
+            return false;
+        }
+        highWaterMark.accumulateAndGet(queue.size(), Math::max);
+        return true;
+    }
+
+    /**
+     * 処理待ちの村人の数
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * キューの最大の深さ（起動してから）
+     */
+    public int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * 積まれたスナップショットの数
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * 処理前に新しいスナップショットで置き換えた数
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * キューが一杯で捨てた数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * 記録まで終わった数
+     */
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    private synchronized void ensureStarted() {
+        if (worker != null) {
+            return;
+        }
+        worker = new Thread(this::run, "WhoHasMending-Capture");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    private void run() {
+        while (true) {
+            OffersSnapshot snapshot;
+            try {
+                snapshot = pending.remove(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (snapshot == null) {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            try {
+                process(snapshot);
+                processed.incrementAndGet();
+                WhohasmendingMetrics.CAPTURE_LATENCY.recordSince(start);
+            } catch (Exception e) {
+                Whohasmending.LOGGER.error("Failed to capture trade for villager {}", snapshot.getVillagerUuid(), e);
+            }
+        }
+    }
+
+    /**
+     * スナップショットから村人データを作り、記録する
+     */
+    private void process(OffersSnapshot snapshot) {
+        CaptureEvent event = new CaptureEvent();
+        event.begin();
+        // 名前はクライアントスレッドで翻訳済み（ここではComponentに触らない）
+        VillagerTradeData data = new VillagerTradeData(snapshot.getVillagerUuid(), snapshot.getProfessionName());
+
+        if (snapshot.hasBook()) {
+            data.addTrade(new TradeEntry(snapshot.getItemName(), snapshot.getEnchantmentName(),
+                    snapshot.getEnchantmentId(), snapshot.getEnchantmentLevel(), snapshot.getEmeraldCost()));
+        }
+        data.updateDisplayName();
+
+        // 処理待ちの間にワールドを移った場合は記録しない
+        boolean recorded = VillagerDataManager.getInstance().putVillagerData(snapshot.getWorldId(), snapshot.getVillagerUuid(), data);
+        event.end();
+        if (event.shouldCommit()) {
+            event.worldId = snapshot.getWorldId();
+            event.villagerUuid = snapshot.getVillagerUuid().toString();
+            event.trades = data.getTrades().size();
+            event.recorded = recorded;
+            event.commit();
+        }
+        if (!recorded) {
+            Whohasmending.LOGGER.debug("Discarded trade capture for villager {} from a previous world", snapshot.getVillagerUuid());
+            return;
+        }
+
+        Whohasmending.LOGGER.debug("Captured trade for villager {} ({}): display='{}'",
+                snapshot.getVillagerUuid(), snapshot.getProfessionName(), data.getDisplayName());
+    }
+}
@@ -0,0 +1,81 @@
+package acaciatide.whohasmending.capture;
+
+import acaciatide.whohasmending.config.WhohasmendingConfig;
+import acaciatide.whohasmending.data.VillagerDataManager;
+import acaciatide.whohasmending.data.VillagerPosition;
+import acaciatide.whohasmending.data.VillagerTradeData;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.npc.villager.Villager;
+
+/**
+ * データのある村人を最後に見かけた位置を記録するクラス
+ * 移動のたびではなく、一定ティックごとに読み込み済みの村人をまとめて確認し、動いた分だけを1回で反映する
+ */
+public class VillagerPositionTracker {
+    private static final VillagerPositionTracker INSTANCE = new VillagerPositionTracker();
+
+    private long ticks;
+
+    private VillagerPositionTracker() {
+    }
+
+    public static VillagerPositionTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * クライアントティックごとに呼び出す
+     */
+    public void tick(Minecraft client) {
+        if (client.level == null) {
+            return;
+        }
+        WhohasmendingConfig config = WhohasmendingConfig.getInstance();
+        if (++ticks % config.getPositionUpdateIntervalTicks() != 0) {
+            return;
+        }
+
+        VillagerDataManager manager = VillagerDataManager.getInstance();
+        if (manager.getCurrentWorldId() == null || manager.isLoading()) {
+            return;
+        }
+
+        String dimension = client.level.dimension().identifier().toString();
+        long minMove = config.getPositionMinMoveBlocks();
+        Map<UUID, VillagerPosition> moved = null;
+
+        for (Entity entity : client.level.entitiesForRendering()) {
+            if (!(entity instanceof Villager)) {
+                continue;
+            }
+            VillagerTradeData data = manager.getVillagerData(entity.getUUID());
+            if (data == null) {
+                continue;
+            }
+
+            int x = entity.getBlockX();
+            int y = entity.getBlockY();
+            int z = entity.getBlockZ();
+            VillagerPosition last = data.getLastSeen();
+            // 前回から少ししか動いていなければ記録しない（書き込みを増やさないため）
+            if (last != null && last.getDimension().equals(dimension)
+                    && last.distanceSquared(x, y, z) < minMove * minMove) {
+                continue;
+            }
+
+            if (moved == null) {
+                moved = new HashMap<>();
+            }
+            moved.put(entity.getUUID(), new VillagerPosition(dimension, x, y, z));
+        }
+
+        if (moved != null) {
+            manager.updatePositions(moved);
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package acaciatide.whohasmending.capture;
 
 import acaciatide.whohasmending.Whohasmending;
-import acaciatide.whohasmending.data.TradeEntry;
 import acaciatide.whohasmending.data.VillagerDataManager;
-import acaciatide.whohasmending.data.VillagerTradeData;
 import java.util.UUID;
+import net.minecraft.client.Minecraft;
 import net.minecraft.core.Holder;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.npc.villager.Villager;
+import net.minecraft.world.inventory.MerchantMenu;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.item.Items;
 import net.minecraft.world.item.enchantment.Enchantment;
@@ -13,87 +16,118 @@ import net.minecraft.world.item.enchantment.EnchantmentHelper;
 import net.minecraft.world.item.enchantment.ItemEnchantments;
 import net.minecraft.world.item.trading.MerchantOffer;
 import net.minecraft.world.item.trading.MerchantOffers;
+import net.minecraft.world.phys.EntityHitResult;
+import net.minecraft.world.phys.HitResult;
 
 /**
  * 取引画面から村人の取引情報を抽出するクラス
+ * 取引オファーのパケットが届いた時に1回だけ呼ばれ、画面の描画ごとには何もしない
+ * 名前の翻訳はここ（クライアントスレッド）で済ませて文字列だけをTradeCapturePipelineに渡し、記録はキャプチャスレッドで行う
+ * 翻訳可能なComponentは分解結果を同期せずにキャッシュするため、描画と並行して他のスレッドから触らない
  */
 public class VillagerTradeCapture {
 
     /**
-     * TradeOfferListから取引情報をキャプチャして保存
-     * @param offers 取引オファーリスト
-     * @param villagerUuid 村人のUUID
-     * @param profession 村人の職業名
+     * 取引オファーを受け取った時に呼び出す（パケット処理の後、クライアントスレッドから呼ぶ）
+     * @param containerId オファーの送り先のコンテナID
+     * @param offers 受け取った取引オファー
      */
-    public static void captureFromOffers(MerchantOffers offers, UUID villagerUuid, String profession) {
-        if (offers == null || villagerUuid == null) {
-            Whohasmending.LOGGER.warn("Cannot capture: offers or UUID is null");
+    public static void onMerchantOffers(int containerId, MerchantOffers offers) {
+        Minecraft client = Minecraft.getInstance();
+        if (client.player == null || client.level == null) {
+            return;
+        }
+        // 開いている取引画面宛てのオファーだけを扱う（バニラも同じ条件で反映する）
+        if (!(client.player.containerMenu instanceof MerchantMenu menu) || menu.containerId != containerId) {
+            return;
+        }
+        if (offers == null || offers.isEmpty()) {
             return;
         }
 
-        if (offers.isEmpty()) {
-            Whohasmending.LOGGER.info("No trade offers available for villager: {}", villagerUuid);
+        Entity targetEntity = findInteractingVillager(client, containerId);
+        if (!(targetEntity instanceof Villager villager)) {
+            Whohasmending.LOGGER.warn("Could not find villager for trade capture");
             return;
         }
 
-        VillagerTradeData data = new VillagerTradeData(villagerUuid, profession);
-        
-        for (MerchantOffer offer : offers) {
-            TradeEntry entry = extractTradeEntry(offer);
-            if (entry != null) {
-                data.addTrade(entry);
-                break; // 最初の1つ（一番上のエンチャント本）を見つけたら終了
-            }
+        // 職業IDを取得
+        String professionId = villager.getVillagerData().profession().unwrapKey()
+                .map(k -> k.identifier().getPath())
+                .orElse("none");
+
+        // 司書以外は記録しない
+        if (!"librarian".equals(professionId)) {
+            return;
+        }
+
+        String worldId = VillagerDataManager.getInstance().getCurrentWorldId();
+        if (worldId == null) {
+            return;
         }
 
-        data.updateDisplayName();
-        
-        VillagerDataManager.getInstance().putVillagerData(villagerUuid, data);
-        
-        Whohasmending.LOGGER.info("Captured trade for villager {} ({}): display='{}'", 
-                villagerUuid, profession, data.getDisplayName());
+        // 職業名を取得（現在の言語設定で翻訳）
+        String professionName = Component.translatable("entity.minecraft.villager." + professionId).getString();
+
+        TradeCapturePipeline.getInstance().submit(snapshotOffers(offers, worldId, villager.getUUID(), professionName));
     }
 
     /**
-     * TradeOfferからTradeEntryを抽出
+     * 取引オファーから記録に必要な値だけを文字列と数値で取り出す
      */
-    private static TradeEntry extractTradeEntry(MerchantOffer offer) {
-        ItemStack sellItem = offer.getResult();
+    private static OffersSnapshot snapshotOffers(MerchantOffers offers, String worldId, UUID villagerUuid,
+                                                 String professionName) {
+        for (MerchantOffer offer : offers) {
+            ItemStack sellItem = offer.getResult();
 
-        // エンチャント本以外は無視（記録しない）
-        if (!sellItem.is(Items.ENCHANTED_BOOK)) {
-            return null;
-        }
+            // エンチャント本以外は無視（記録しない）
+            if (!sellItem.is(Items.ENCHANTED_BOOK)) {
+                continue;
+            }
 
-        ItemStack buyItem = offer.getCostA();
-        
-        String itemName = sellItem.getHoverName().getString();
-        String enchantmentName = null;
-        int enchantmentLevel = 0;
-        int emeraldCost = buyItem.getCount();
-        // エンチャント情報を抽出
-        ItemEnchantments enchantments = EnchantmentHelper.getEnchantmentsForCrafting(sellItem);
-        
-        for (var entry : enchantments.entrySet()) {
-            var enchantment = entry.getKey();
-            int level = entry.getIntValue();
-            
-            // エンチャント名を取得
-            enchantmentName = extractEnchantmentBaseName(enchantment);
-            enchantmentLevel = level;
-            
-            // 最初のエンチャントのみ使用（通常は1つだけ）
-            break;
-        }
+            // エンチャント情報を抽出
+            Holder<Enchantment> enchantment = null;
+            int enchantmentLevel = 0;
+            ItemEnchantments enchantments = EnchantmentHelper.getEnchantmentsForCrafting(sellItem);
+            for (var entry : enchantments.entrySet()) {
+                enchantment = entry.getKey();
+                enchantmentLevel = entry.getIntValue();
+                // 最初のエンチャントのみ使用（通常は1つだけ）
+                break;
+            }
+
+            // エンチャント名を取得（現在の言語設定で翻訳、レベル表記なし）
+            String enchantmentName = enchantment != null ? enchantment.value().description().getString() : null;
+            // 検索に使うID（言語設定に依存しない）
+            String enchantmentId = enchantment != null
+                    ? enchantment.unwrapKey().map(key -> key.identifier().toString()).orElse(null)
+                    : null;
 
-        return new TradeEntry(itemName, enchantmentName, enchantmentLevel, emeraldCost);
+            // 最初の1つ（一番上のエンチャント本）を見つけたら終了
+            return new OffersSnapshot(worldId, villagerUuid, professionName, sellItem.getHoverName().getString(),
+                    enchantmentName, enchantmentId, enchantmentLevel, offer.getCostA().getCount());
+        }
+        return new OffersSnapshot(worldId, villagerUuid, professionName, null, null, null, 0, 0);
     }
 
     /**
-     * エンチャントの基本名を抽出（レベル表記なし）
+     * 現在対話中の村人を探す
      */
-    private static String extractEnchantmentBaseName(Holder<Enchantment> enchantment) {
-        // 現在の言語設定に従って翻訳された名前を取得
-        return enchantment.value().description().getString();
+    private static Entity findInteractingVillager(Minecraft client, int containerId) {
+        // 話しかけた時に記録したエンティティIDから取得する
+        Entity merchant = MerchantInteractionTracker.getInstance().getMerchant(client, containerId);
+        if (merchant != null) {
+            return merchant;
+        }
+
+        // フォールバック: 他のModなどから開かれた場合はクロスヘアのEntityHitResultから取得を試みる
+        if (client.hitResult != null && client.hitResult.getType() == HitResult.Type.ENTITY) {
+            EntityHitResult entityHit = (EntityHitResult) client.hitResult;
+            Entity entity = entityHit.getEntity();
+            if (entity instanceof Villager) {
+                return entity;
+            }
+        }
+        return null;
     }
 }
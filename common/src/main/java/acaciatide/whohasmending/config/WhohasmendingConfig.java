@@ -0,0 +1,315 @@
+package acaciatide.whohasmending.config;
+
+import acaciatide.whohasmending.Whohasmending;
+import net.minecraft.client.Minecraft;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Modの設定値を保持するクラス
+ * config/whohasmending/whohasmending.properties から読み込む（存在しない場合はデフォルト値で作成）
+ */
+public class WhohasmendingConfig {
+    private static final String FILE_NAME = "whohasmending.properties";
+
+    /**
+     * 保存形式
+     */
+    public enum StorageEngine {
+        // 変更のたびにJSONファイル全体を書き直す
+        JSON,
+        // 変更をジャーナルに追記し、一定サイズごとにJSONスナップショットへ畳み込む
+        JOURNAL,
+        // UUID順の固定長バイナリをメモリマップし、参照されたレコードだけを展開する
+        BINARY,
+        // ディメンションと32x32チャンクの領域ごとにファイルを分け、クライアントが読み込んだチャンクの領域だけをメモリに置く
+        REGION,
+        // ファイルに保存せずメモリ上にのみ保持する（動作確認・負荷試験用）
+        MEMORY
+    }
+
+    // 保存設定
+    private boolean writeBehind = true;
+    private long saveDebounceMs = 2000;
+    private long saveIntervalMs = 10000;
+    private long shutdownFlushTimeoutMs = 3000;
+    private StorageEngine storageEngine = StorageEngine.JSON;
+    private long journalGroupCommitMs = 500;
+    private long journalCompactThresholdBytes = 1024 * 1024;
+
+    // 位置の記録設定
+    private long positionUpdateIntervalTicks = 20;
+    private long positionMinMoveBlocks = 4;
+
+    // ネームタグの表示設定
+    private long labelFullDistance = 16;
+    private long labelMaxDistance = 48;
+    private boolean labelCrosshairOnly = false;
+
+    // 近くのおすすめ取引パネルの設定
+    private boolean hudEnabled = false;
+    private long hudMaxEntries = 5;
+    private long hudRadiusBlocks = 48;
+    private long hudTickBudgetMicros = 250;
+
+    // バックアップの設定
+    private long backupMaxGenerations = 30;
+
+    private WhohasmendingConfig() {
+    }
+
+    // クライアント・ライター・キャプチャの各スレッドから参照されるため、クラスの初期化で1回だけ読み込む
+    private static class Holder {
+        private static final WhohasmendingConfig INSTANCE = load(getConfigFile());
+    }
+
+    public static WhohasmendingConfig getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * 設定ファイルを読み込む
+     * @param file 設定ファイルのパス
+     * @return 読み込んだ設定（失敗時はデフォルト値）
+     */
+    public static WhohasmendingConfig load(Path file) {
+        WhohasmendingConfig config = new WhohasmendingConfig();
+        Properties properties = new Properties();
+
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            } catch (IOException e) {
+                Whohasmending.LOGGER.warn("Failed to read config file, using defaults: {}", file, e);
+            }
+        }
+
+        config.writeBehind = getBoolean(properties, "save.writeBehind", config.writeBehind);
+        config.saveDebounceMs = getLong(properties, "save.debounceMs", config.saveDebounceMs, 0);
+        config.saveIntervalMs = getLong(properties, "save.intervalMs", config.saveIntervalMs, 0);
+        config.shutdownFlushTimeoutMs = getLong(properties, "save.shutdownFlushTimeoutMs", config.shutdownFlushTimeoutMs, 0);
+        config.storageEngine = getEnum(properties, "storage.engine", StorageEngine.class, config.storageEngine);
+        config.journalGroupCommitMs = getLong(properties, "journal.groupCommitMs", config.journalGroupCommitMs, 0);
+        config.journalCompactThresholdBytes = getLong(properties, "journal.compactThresholdBytes", config.journalCompactThresholdBytes, 0);
+        config.positionUpdateIntervalTicks = getLong(properties, "position.updateIntervalTicks", config.positionUpdateIntervalTicks, 1);
+        config.positionMinMoveBlocks = getLong(properties, "position.minMoveBlocks", config.positionMinMoveBlocks, 0);
+        config.labelFullDistance = getLong(properties, "label.fullDistance", config.labelFullDistance, 0);
+        config.labelMaxDistance = getLong(properties, "label.maxDistance", config.labelMaxDistance, 0);
+        config.labelCrosshairOnly = getBoolean(properties, "label.crosshairOnly", config.labelCrosshairOnly);
+        config.hudEnabled = getBoolean(properties, "hud.enabled", config.hudEnabled);
+        config.hudMaxEntries = getLong(properties, "hud.maxEntries", config.hudMaxEntries, 1);
+        config.hudRadiusBlocks = getLong(properties, "hud.radiusBlocks", config.hudRadiusBlocks, 1);
+        config.hudTickBudgetMicros = getLong(properties, "hud.tickBudgetMicros", config.hudTickBudgetMicros, 1);
+        config.backupMaxGenerations = getLong(properties, "backup.maxGenerations", config.backupMaxGenerations, 1);
+
+        // 存在しないキーを補完して書き戻す
+        config.write(file);
+        return config;
+    }
+
+    /**
+     * 現在の設定値をファイルに書き出す
+     */
+    private void write(Path file) {
+        Properties properties = new Properties();
+        properties.setProperty("save.writeBehind", Boolean.toString(writeBehind));
+        properties.setProperty("save.debounceMs", Long.toString(saveDebounceMs));
+        properties.setProperty("save.intervalMs", Long.toString(saveIntervalMs));
+        properties.setProperty("save.shutdownFlushTimeoutMs", Long.toString(shutdownFlushTimeoutMs));
+        properties.setProperty("storage.engine", storageEngine.name().toLowerCase(Locale.ROOT));
+        properties.setProperty("journal.groupCommitMs", Long.toString(journalGroupCommitMs));
+        properties.setProperty("journal.compactThresholdBytes", Long.toString(journalCompactThresholdBytes));
+        properties.setProperty("position.updateIntervalTicks", Long.toString(positionUpdateIntervalTicks));
+        properties.setProperty("position.minMoveBlocks", Long.toString(positionMinMoveBlocks));
+        properties.setProperty("label.fullDistance", Long.toString(labelFullDistance));
+        properties.setProperty("label.maxDistance", Long.toString(labelMaxDistance));
+        properties.setProperty("label.crosshairOnly", Boolean.toString(labelCrosshairOnly));
+        properties.setProperty("hud.enabled", Boolean.toString(hudEnabled));
+        properties.setProperty("hud.maxEntries", Long.toString(hudMaxEntries));
+        properties.setProperty("hud.radiusBlocks", Long.toString(hudRadiusBlocks));
+        properties.setProperty("hud.tickBudgetMicros", Long.toString(hudTickBudgetMicros));
+        properties.setProperty("backup.maxGenerations", Long.toString(backupMaxGenerations));
+
+        try {
+            Files.createDirectories(file.getParent());
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                properties.store(writer, "Who has Mending? settings");
+            }
+        } catch (IOException e) {
+            Whohasmending.LOGGER.warn("Failed to write config file: {}", file, e);
+        }
+    }
+
+    private static boolean getBoolean(Properties properties, String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    private static long getLong(Properties properties, String key, long defaultValue, long min) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(min, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            Whohasmending.LOGGER.warn("Invalid value for config key {}: '{}', using default {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static <E extends Enum<E>> E getEnum(Properties properties, String key, Class<E> type, E defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            Whohasmending.LOGGER.warn("Invalid value for config key {}: '{}', using default {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static Path getConfigFile() {
+        return getConfigDirectory().resolve(FILE_NAME);
+    }
+
+    /**
+     * Modの設定・データを置くディレクトリ（config/whohasmending）
+     */
+    public static Path getConfigDirectory() {
+        return Minecraft.getInstance().gameDirectory.toPath()
+                .resolve("config")
+                .resolve("whohasmending");
+    }
+
+    /**
+     * 書き込みをバックグラウンドスレッドへ遅延させるかどうか
+     */
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * 最後の変更から保存までの待機時間（連続キャプチャをまとめる）
+     */
+    public long getSaveDebounceMs() {
+        return saveDebounceMs;
+    }
+
+    /**
+     * 最初の未保存変更から保存までの最大待機時間
+     */
+    public long getSaveIntervalMs() {
+        return saveIntervalMs;
+    }
+
+    /**
+     * ワールド離脱・終了時に保存完了を待つ最大時間
+     */
+    public long getShutdownFlushTimeoutMs() {
+        return shutdownFlushTimeoutMs;
+    }
+
+    /**
+     * 保存形式
+     */
+    public StorageEngine getStorageEngine() {
+        return storageEngine;
+    }
+
+    /**
+     * ジャーナルレコードをまとめてfsyncするまでの待機時間
+     */
+    public long getJournalGroupCommitMs() {
+        return journalGroupCommitMs;
+    }
+
+    /**
+     * ジャーナルをスナップショットへ畳み込むサイズ（バイト）
+     */
+    public long getJournalCompactThresholdBytes() {
+        return journalCompactThresholdBytes;
+    }
+
+    /**
+     * 村人の位置をまとめて記録する間隔（ティック）
+     */
+    public long getPositionUpdateIntervalTicks() {
+        return positionUpdateIntervalTicks;
+    }
+
+    /**
+     * 記録し直すのに必要な移動距離（ブロック、これ未満の移動は記録しない）
+     */
+    public long getPositionMinMoveBlocks() {
+        return positionMinMoveBlocks;
+    }
+
+    /**
+     * 取引内容をすべて表示する距離（ブロック）
+     */
+    public long getLabelFullDistance() {
+        return labelFullDistance;
+    }
+
+    /**
+     * ネームタグを表示する最大距離（ブロック、fullDistanceより先はコストのみ表示）
+     */
+    public long getLabelMaxDistance() {
+        return labelMaxDistance;
+    }
+
+    /**
+     * クロスヘアを合わせた村人だけにネームタグを表示するか
+     */
+    public boolean isLabelCrosshairOnly() {
+        return labelCrosshairOnly;
+    }
+
+    /**
+     * 近くのおすすめ取引パネルを表示するか
+     */
+    public boolean isHudEnabled() {
+        return hudEnabled;
+    }
+
+    /**
+     * パネルに表示する取引の最大件数
+     */
+    public long getHudMaxEntries() {
+        return hudMaxEntries;
+    }
+
+    /**
+     * パネルの対象にする村人までの距離（ブロック）
+     */
+    public long getHudRadiusBlocks() {
+        return hudRadiusBlocks;
+    }
+
+    /**
+     * パネルの更新に1ティックあたり使ってよい時間（マイクロ秒）
+     */
+    public long getHudTickBudgetMicros() {
+        return hudTickBudgetMicros;
+    }
+
+    /**
+     * ワールドごとに保持するバックアップの世代数
+     */
+    public long getBackupMaxGenerations() {
+        return backupMaxGenerations;
+    }
+}
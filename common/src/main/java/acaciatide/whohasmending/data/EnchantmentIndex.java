@@ -0,0 +1,218 @@
+package acaciatide.whohasmending.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * エンチャントから、そのエンチャント本を売る村人を引く転置インデックス
+ * キーはレジストリID（"minecraft:mending" -> "mending"）で、言語設定に依存しない
+ * エンチャントごとに取引をエメラルドの安い順に並べて保持する
+ * スレッド安全ではないため、VillagerDataManagerのロック内で使う
+ */
+public class EnchantmentIndex {
+    private static final Comparator<Offer> BY_COST = Comparator
+            .comparingInt(Offer::getEmeraldCost)
+            .thenComparing(Comparator.comparingInt(Offer::getEnchantmentLevel).reversed())
+            .thenComparing(Offer::getVillagerUuid);
+
+    // エンチャントのキー -> 安い順の取引
+    private final Map<String, TreeSet<Offer>> offersByEnchantment = new HashMap<>();
+    // 村人 -> 登録済みの取引（更新・削除時に外すため）
+    private final Map<UUID, List<Offer>> offersByVillager = new HashMap<>();
+    // trueの場合、次の検索時に全データから作り直す
+    private boolean stale;
+
+    /**
+     * エンチャント本1件の取引
+     */
+    public static class Offer {
+        private final UUID villagerUuid;
+        private final String key;
+        private final String enchantmentName;
+        private final int enchantmentLevel;
+        private final int emeraldCost;
+
+        private Offer(UUID villagerUuid, String key, String enchantmentName, int enchantmentLevel, int emeraldCost) {
+            this.villagerUuid = villagerUuid;
+            this.key = key;
+            this.enchantmentName = enchantmentName;
+            this.enchantmentLevel = enchantmentLevel;
+            this.emeraldCost = emeraldCost;
+        }
+
+        public UUID getVillagerUuid() {
+            return villagerUuid;
+        }
+
+        /**
+         * 表示用の翻訳済みエンチャント名
+         */
+        public String getEnchantmentName() {
+            return enchantmentName;
+        }
+
+        public int getEnchantmentLevel() {
+            return enchantmentLevel;
+        }
+
+        public int getEmeraldCost() {
+            return emeraldCost;
+        }
+    }
+
+    /**
+     * 村人の取引を登録し直す
+     */
+    public void put(UUID villagerUuid, VillagerTradeData data) {
+        if (stale) {
+            return;
+        }
+        remove(villagerUuid);
+
+        List<Offer> offers = new ArrayList<>(1);
+        for (TradeEntry trade : data.getTrades()) {
+            String key = keyOf(trade);
+            if (key.isEmpty()) {
+                continue;
+            }
+            Offer offer = new Offer(villagerUuid, key, trade.getEnchantmentName(), trade.getEnchantmentLevel(), trade.getEmeraldCost());
+            offersByEnchantment.computeIfAbsent(key, k -> new TreeSet<>(BY_COST)).add(offer);
+            offers.add(offer);
+        }
+        if (!offers.isEmpty()) {
+            offersByVillager.put(villagerUuid, offers);
+        }
+    }
+
+    /**
+     * 村人の取引を外す
+     */
+    public void remove(UUID villagerUuid) {
+        if (stale) {
+            return;
+        }
+        List<Offer> offers = offersByVillager.remove(villagerUuid);
+        if (offers == null) {
+            return;
+        }
+        for (Offer offer : offers) {
+            TreeSet<Offer> set = offersByEnchantment.get(offer.key);
+            if (set != null) {
+                set.remove(offer);
+                if (set.isEmpty()) {
+                    offersByEnchantment.remove(offer.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 全て破棄
+     */
+    public void clear() {
+        offersByEnchantment.clear();
+        offersByVillager.clear();
+        stale = false;
+    }
+
+    /**
+     * データがまとめて置き換わった時に呼ぶ
+     * メモリマップしたデータを全件展開しないよう、作り直しは次の検索まで遅らせる
+     */
+    public void invalidate() {
+        offersByEnchantment.clear();
+        offersByVillager.clear();
+        stale = true;
+    }
+
+    /**
+     * 指定したエンチャントの取引を安い順に検索
+     * @param enchantment エンチャントのキー（"mending"、大文字小文字の違いは無視）
+     * @param maxCost エメラルドの上限（含む）
+     * @param limit 返す最大件数
+     * @param data 作り直しが必要な場合に使う現在のデータ
+     */
+    public List<Offer> find(String enchantment, int maxCost, int limit, Map<UUID, VillagerTradeData> data) {
+        rebuildIfStale(data);
+
+        TreeSet<Offer> set = offersByEnchantment.get(normalize(enchantment));
+        if (set == null) {
+            return Collections.emptyList();
+        }
+        List<Offer> result = new ArrayList<>(Math.min(limit, set.size()));
+        for (Offer offer : set) {
+            if (offer.getEmeraldCost() > maxCost || result.size() >= limit) {
+                break;
+            }
+            result.add(offer);
+        }
+        return result;
+    }
+
+    /**
+     * 指定したエンチャントでエメラルドが上限以下の取引の件数
+     */
+    public int count(String enchantment, int maxCost, Map<UUID, VillagerTradeData> data) {
+        rebuildIfStale(data);
+
+        TreeSet<Offer> set = offersByEnchantment.get(normalize(enchantment));
+        if (set == null) {
+            return 0;
+        }
+        if (maxCost >= Integer.MAX_VALUE) {
+            return set.size();
+        }
+        // コストが上限を超える最初の取引より前の件数
+        Offer bound = set.ceiling(new Offer(new UUID(Long.MIN_VALUE, Long.MIN_VALUE), null, null, Integer.MAX_VALUE, maxCost + 1));
+        return bound != null ? set.headSet(bound).size() : set.size();
+    }
+
+    /**
+     * 登録されているエンチャントのキー（コマンドの補完用）
+     */
+    public Set<String> getEnchantments(Map<UUID, VillagerTradeData> data) {
+        rebuildIfStale(data);
+        return new TreeSet<>(offersByEnchantment.keySet());
+    }
+
+    private void rebuildIfStale(Map<UUID, VillagerTradeData> data) {
+        if (!stale) {
+            return;
+        }
+        stale = false;
+        data.forEach(this::put);
+    }
+
+    /**
+     * 取引のキー
+     * IDのない古いデータは、IDが記録されるまで表示名から作ったキーで登録する
+     */
+    static String keyOf(TradeEntry trade) {
+        String id = trade.getEnchantmentId();
+        return id != null && !id.isEmpty() ? normalize(id) : normalize(trade.getEnchantmentName());
+    }
+
+    /**
+     * エンチャントのIDや入力をキーに変換
+     * コマンドの単語として入力できるよう、"minecraft:"は省き、他の名前空間の":"は"."にする
+     * （"minecraft:silk_touch" -> "silk_touch"、"mymod:frost" -> "mymod.frost"、"Silk Touch" -> "silk_touch"）
+     */
+    public static String normalize(String enchantment) {
+        if (enchantment == null) {
+            return "";
+        }
+        String key = enchantment.trim().toLowerCase(Locale.ROOT).replace(' ', '_');
+        if (key.startsWith("minecraft:")) {
+            key = key.substring("minecraft:".length());
+        }
+        return key.replace(':', '.');
+    }
+}
@@ -0,0 +1,65 @@
+package acaciatide.whohasmending.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * エンチャント検索（/whm find）の結果を保持するクラス
+ */
+public class FindResult {
+    private final String enchantment;
+    private final int maxCost;
+    private final int totalMatches;
+    private final List<EnchantmentIndex.Offer> offers;
+    private final Map<UUID, VillagerPosition> positions;
+
+    /**
+     * @param positions 表示する村人を最後に見かけた位置（分からない村人は含まない）
+     */
+    public FindResult(String enchantment, int maxCost, int totalMatches, List<EnchantmentIndex.Offer> offers,
+                      Map<UUID, VillagerPosition> positions) {
+        this.enchantment = enchantment;
+        this.maxCost = maxCost;
+        this.totalMatches = totalMatches;
+        this.offers = offers;
+        this.positions = positions;
+    }
+
+    public int getTotalMatches() {
+        return totalMatches;
+    }
+
+    /**
+     * 安い順の取引（最大件数まで）
+     */
+    public List<EnchantmentIndex.Offer> getOffers() {
+        return offers;
+    }
+
+    /**
+     * チャットに表示するメッセージ（1行ずつ）
+     */
+    public List<String> getMessages() {
+        List<String> messages = new ArrayList<>(offers.size() + 1);
+        String condition = maxCost < Integer.MAX_VALUE ? " for " + maxCost + " emeralds or less" : "";
+
+        if (totalMatches == 0) {
+            messages.add("§7[WhoHasMending] No known villager sells " + enchantment + condition + ".");
+            return messages;
+        }
+
+        String shown = offers.size() < totalMatches ? " (cheapest " + offers.size() + " shown)" : "";
+        messages.add("§a[WhoHasMending] " + totalMatches + " villager(s) sell " + enchantment + condition + shown + ":");
+        for (EnchantmentIndex.Offer offer : offers) {
+            TradeEntry trade = new TradeEntry(null, offer.getEnchantmentName(), offer.getEnchantmentLevel(), offer.getEmeraldCost());
+            VillagerPosition position = positions.get(offer.getVillagerUuid());
+            String where = position != null
+                    ? " §7@ " + position + " §8(" + position.getDimension() + ")"
+                    : " §8" + offer.getVillagerUuid();
+            messages.add("§7 - §f" + trade.getDisplayText() + where);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,82 @@
+package acaciatide.whohasmending.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * ファイルに書き込まずメモリ上にのみ保持するストア（動作確認・負荷試験用）
+ * ゲームを終了するとデータは失われる
+ */
+public class InMemoryVillagerStore implements VillagerStore {
+    private static final int MAX_BACKUPS = 3;
+
+    private final String worldId;
+    private VillagerDataTable data = new VillagerDataTable();
+    private final Deque<VillagerDataTable> backups = new ArrayDeque<>();
+    private final Deque<VillagerBackupManifest.Generation> generations = new ArrayDeque<>();
+    private long nextBackupId = 1;
+
+    public InMemoryVillagerStore(String worldId) {
+        this.worldId = worldId;
+    }
+
+    @Override
+    public String getWorldId() {
+        return worldId;
+    }
+
+    /**
+     * 呼び出し元が変更してもストアに影響しないようコピーを返す
+     */
+    @Override
+    public synchronized Map<UUID, VillagerTradeData> load() {
+        return new VillagerDataTable(data);
+    }
+
+    @Override
+    public synchronized void put(UUID villagerUuid, VillagerTradeData data) {
+        this.data.put(villagerUuid, data);
+    }
+
+    @Override
+    public synchronized void remove(UUID villagerUuid) {
+        data.remove(villagerUuid);
+    }
+
+    @Override
+    public synchronized void snapshot(Map<UUID, VillagerTradeData> data) {
+        this.data = new VillagerDataTable(data);
+    }
+
+    /**
+     * 渡されたデータのコピーを保持（最新のMAX_BACKUPS個まで）
+     */
+    @Override
+    public synchronized void backup(Map<UUID, VillagerTradeData> data) {
+        backups.addFirst(new VillagerDataTable(data));
+        generations.addFirst(new VillagerBackupManifest.Generation(nextBackupId++, System.currentTimeMillis(),
+                data.size(), 0, 0, 0, null));
+        while (backups.size() > MAX_BACKUPS) {
+            backups.removeLast();
+            generations.removeLast();
+        }
+    }
+
+    @Override
+    public synchronized Map<UUID, VillagerTradeData> restore() {
+        VillagerDataTable latest = backups.peekFirst();
+        return latest != null ? new VillagerDataTable(latest) : new VillagerDataTable();
+    }
+
+    @Override
+    public synchronized List<VillagerBackupManifest.Generation> listBackups() {
+        List<VillagerBackupManifest.Generation> result = new ArrayList<>(generations);
+        Collections.reverse(result);
+        return result;
+    }
+}
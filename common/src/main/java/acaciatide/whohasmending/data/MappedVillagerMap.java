@@ -0,0 +1,190 @@
+package acaciatide.whohasmending.data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * メモリマップしたテーブルの上に変更分を重ねたMap
+ * 参照されたレコードだけをヒープに展開し、変更・削除は差分として保持する
+ * 参照（get）は状態を変えないため、公開後のスナップショットは複数スレッドから同時に読める
+ */
+public class MappedVillagerMap extends AbstractMap<UUID, VillagerTradeData> {
+    private MappedVillagerTable base;
+    private final VillagerDataTable overlay;
+    private final Set<UUID> removed;
+    private int size;
+
+    public MappedVillagerMap(MappedVillagerTable base) {
+        this(base, new VillagerDataTable(), new HashSet<>(), base != null ? base.size() : 0);
+    }
+
+    private MappedVillagerMap(MappedVillagerTable base, VillagerDataTable overlay, Set<UUID> removed, int size) {
+        this.base = base;
+        this.overlay = overlay;
+        this.removed = removed;
+        this.size = size;
+    }
+
+    @Override
+    public VillagerTradeData get(Object key) {
+        if (!(key instanceof UUID uuid)) {
+            return null;
+        }
+
+        VillagerTradeData data = overlay.get(uuid);
+        if (data != null || removed.contains(uuid)) {
+            return data;
+        }
+
+        // 描画時はラベルのキャッシュが結果を保持するため、ここでは展開結果をキャッシュしない
+        if (base != null) {
+            int index = base.indexOf(uuid);
+            if (index >= 0) {
+                return base.dataAt(index);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof UUID uuid)) {
+            return false;
+        }
+        if (overlay.containsKey(uuid)) {
+            return true;
+        }
+        return !removed.contains(uuid) && base != null && base.indexOf(uuid) >= 0;
+    }
+
+    @Override
+    public VillagerTradeData put(UUID key, VillagerTradeData value) {
+        VillagerTradeData previous = get(key);
+        if (previous == null) {
+            size++;
+        }
+        overlay.put(key, value);
+        removed.remove(key);
+        return previous;
+    }
+
+    @Override
+    public VillagerTradeData remove(Object key) {
+        VillagerTradeData previous = get(key);
+        if (previous == null) {
+            return null;
+        }
+
+        UUID uuid = (UUID) key;
+        overlay.remove(uuid);
+        if (base != null && base.indexOf(uuid) >= 0) {
+            removed.add(uuid);
+        }
+        size--;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        base = null;
+        overlay.clear();
+        removed.clear();
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * コピーを作成（テーブルは共有し、差分だけを複製する）
+     */
+    public MappedVillagerMap copy() {
+        return new MappedVillagerMap(base, new VillagerDataTable(overlay), new HashSet<>(removed), size);
+    }
+
+    /**
+     * ヒープ上の差分が使うおおよそのバイト数（メモリマップしたテーブルは含まない）
+     */
+    public long estimateHeapBytes() {
+        // 削除したUUIDはHashSetのノードとUUID
+        return overlay.estimateHeapBytes() + 80L * removed.size();
+    }
+
+    MappedVillagerTable base() {
+        return base;
+    }
+
+    Map<UUID, VillagerTradeData> overlay() {
+        return overlay;
+    }
+
+    Set<UUID> removed() {
+        return removed;
+    }
+
+    /**
+     * 全件の列挙（テーブル側のレコードはその都度展開する）
+     */
+    @Override
+    public Set<Entry<UUID, VillagerTradeData>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<UUID, VillagerTradeData>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Entry<UUID, VillagerTradeData>> {
+        private final MappedVillagerTable table = base;
+        private final Iterator<Entry<UUID, VillagerTradeData>> overlayIterator = overlay.entrySet().iterator();
+        private int index = 0;
+        private Entry<UUID, VillagerTradeData> next;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+
+            // テーブル側: 削除済み・上書き済みのレコードは飛ばす
+            while (table != null && index < table.size()) {
+                UUID uuid = table.uuidAt(index);
+                int current = index++;
+                if (!removed.contains(uuid) && !overlay.containsKey(uuid)) {
+                    next = new SimpleImmutableEntry<>(uuid, table.dataAt(current));
+                    return true;
+                }
+            }
+
+            if (overlayIterator.hasNext()) {
+                next = overlayIterator.next();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Entry<UUID, VillagerTradeData> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<UUID, VillagerTradeData> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package acaciatide.whohasmending.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * バイナリ形式のデータファイルをメモリマップして読み取るテーブル
+ * レコードはUUID順に並んでいるため、ヒープにデータを展開せずに二分探索で検索できる
+ *
+ * ファイル形式（ビッグエンディアン）:
+ * <pre>
+ * ヘッダ:   int magic, int version, int recordCount, int nameCount
+ * 名前表:   nameCount × (short length, UTF-8 bytes)
+ * レコード: recordCount × (long msb, long lsb, short nameIndex, byte level, byte cost,
+ *                          short dimensionIndex, int x, int y, int z, short enchantmentIdIndex)
+ * </pre>
+ * バージョン1のファイル（位置なしの20バイトのレコード）とバージョン2のファイル
+ * （エンチャントIDなしの34バイトのレコード）も読み込める
+ */
+public class MappedVillagerTable {
+    static final int MAGIC = 0x57484D42; // "WHMB"
+    static final int VERSION = 3;
+    static final int RECORD_BYTES = 36;
+    private static final int V1_RECORD_BYTES = 20;
+    private static final int V2_RECORD_BYTES = 34;
+
+    // nameIndexの特殊値
+    static final short NO_TRADE = -1;
+    static final short NO_ENCHANTMENT = -2;
+    // dimensionIndexの特殊値
+    static final short NO_POSITION = -1;
+    // enchantmentIdIndexの特殊値
+    static final short NO_ENCHANTMENT_ID = -1;
+
+    private final ByteBuffer buffer;
+    private final String[] names;
+    private final int recordCount;
+    private final int recordsOffset;
+    private final int recordBytes;
+
+    private MappedVillagerTable(ByteBuffer buffer, String[] names, int recordCount, int recordsOffset, int recordBytes) {
+        this.buffer = buffer;
+        this.names = names;
+        this.recordCount = recordCount;
+        this.recordsOffset = recordsOffset;
+        this.recordBytes = recordBytes;
+    }
+
+    /**
+     * ファイルを読み取り専用でメモリマップして開く
+     * マップ後はチャネルを閉じてもマッピングは有効なまま残る
+     */
+    public static MappedVillagerTable open(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.limit() < 16 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a villager data file: " + file);
+        }
+        int version = buffer.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported villager data file version " + version + ": " + file);
+        }
+        int recordBytes = version == 1 ? V1_RECORD_BYTES : version == 2 ? V2_RECORD_BYTES : RECORD_BYTES;
+
+        int recordCount = buffer.getInt(8);
+        int nameCount = buffer.getInt(12);
+        // 壊れたファイルで配列の確保や範囲外の読み込みをしないよう、先に大きさを確かめる
+        // 名前は1つ2バイト以上あるため、残りのバイト数より多いことはない
+        if (recordCount < 0 || nameCount < 0 || nameCount > (buffer.limit() - 16) / 2) {
+            throw new IOException("Corrupted villager data file header: " + file);
+        }
+
+        // 名前表はエンチャントの種類数しかないので先に読み込んでおく
+        String[] names = new String[nameCount];
+        int offset = 16;
+        for (int i = 0; i < nameCount; i++) {
+            if (offset + 2 > buffer.limit()) {
+                throw new IOException("Truncated villager data file: " + file);
+            }
+            int length = Short.toUnsignedInt(buffer.getShort(offset));
+            if ((long) offset + 2 + length > buffer.limit()) {
+                throw new IOException("Truncated villager data file: " + file);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(offset + 2, bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+            offset += 2 + length;
+        }
+
+        if ((long) offset + (long) recordCount * recordBytes > buffer.limit()) {
+            throw new IOException("Truncated villager data file: " + file);
+        }
+
+        return new MappedVillagerTable(buffer, names, recordCount, offset, recordBytes);
+    }
+
+    /**
+     * レコード数を取得
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * 指定したUUIDのレコード位置を二分探索で取得
+     * @return 見つからない場合は-1
+     */
+    public int indexOf(long msb, long lsb) {
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(msbAt(mid), lsbAt(mid), msb, lsb);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 指定したUUIDのレコード位置を取得
+     * @return 見つからない場合は-1
+     */
+    public int indexOf(UUID uuid) {
+        return indexOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public long msbAt(int index) {
+        return buffer.getLong(recordOffset(index));
+    }
+
+    public long lsbAt(int index) {
+        return buffer.getLong(recordOffset(index) + 8);
+    }
+
+    public UUID uuidAt(int index) {
+        return new UUID(msbAt(index), lsbAt(index));
+    }
+
+    /**
+     * 指定位置のレコードをVillagerTradeDataとして展開
+     */
+    public VillagerTradeData dataAt(int index) {
+        int offset = recordOffset(index);
+        short nameIndex = buffer.getShort(offset + 16);
+        int level = Byte.toUnsignedInt(buffer.get(offset + 18));
+        int cost = Byte.toUnsignedInt(buffer.get(offset + 19));
+
+        VillagerTradeData data = new VillagerTradeData();
+        data.setVillagerUuid(uuidAt(index));
+        if (nameIndex != NO_TRADE) {
+            String enchantmentName = nameAt(nameIndex);
+            String enchantmentId = recordBytes >= RECORD_BYTES ? nameAt(buffer.getShort(offset + 34)) : null;
+            data.addTrade(new TradeEntry("", enchantmentName, enchantmentId, level, cost));
+        }
+        data.updateDisplayName();
+
+        if (recordBytes >= V2_RECORD_BYTES) {
+            short dimensionIndex = buffer.getShort(offset + 20);
+            if (dimensionIndex >= 0 && dimensionIndex < names.length) {
+                data.setLastSeen(new VillagerPosition(names[dimensionIndex],
+                        buffer.getInt(offset + 22), buffer.getInt(offset + 26), buffer.getInt(offset + 30)));
+            }
+        }
+        return data;
+    }
+
+    private String nameAt(short index) {
+        return index >= 0 && index < names.length ? names[index] : null;
+    }
+
+    /**
+     * 名前表を取得（エンチャント名・エンチャントID・ディメンションID、書き込み時に既存の番号を引き継ぐため）
+     */
+    String[] names() {
+        return names;
+    }
+
+    /**
+     * 指定位置のレコードを現在のバージョンの形式でコピー（名前表の番号は引き継ぐ前提）
+     */
+    void copyRecord(int index, ByteBuffer out) {
+        int offset = recordOffset(index);
+        for (int i = 0; i < recordBytes; i++) {
+            out.put(buffer.get(offset + i));
+        }
+        if (recordBytes < V2_RECORD_BYTES) {
+            // バージョン1のレコードには位置がない
+            out.putShort(NO_POSITION);
+            out.putInt(0);
+            out.putInt(0);
+            out.putInt(0);
+        }
+        if (recordBytes < RECORD_BYTES) {
+            // バージョン2以前のレコードにはエンチャントIDがない
+            out.putShort(NO_ENCHANTMENT_ID);
+        }
+    }
+
+    private int recordOffset(int index) {
+        return recordsOffset + index * recordBytes;
+    }
+
+    /**
+     * UUIDの並び順（msb、lsbの順に符号付きで比較）
+     */
+    static int compare(long msb1, long lsb1, long msb2, long lsb2) {
+        int cmp = Long.compare(msb1, msb2);
+        return cmp != 0 ? cmp : Long.compare(lsb1, lsb2);
+    }
+}
@@ -0,0 +1,277 @@
+package acaciatide.whohasmending.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * プレイヤーの近くにいる村人のエンチャント本を安い順に並べたランキング
+ * 毎回作り直さず、データが変わった村人と距離の区分が変わった村人だけを並べ直す
+ * 1ティックで処理する量は時間で区切り、残りは次のティックに回す
+ * 更新はクライアントスレッドだけで行い、他のスレッドからの変更通知はキューを経由する
+ */
+public class NearbyDealsRanking {
+    // 距離をこの幅（ブロック）で区切り、区分が変わった時だけ並べ直す
+    static final int BUCKET_BLOCKS = 8;
+    // 何件ごとに経過時間を確認するか
+    private static final int BUDGET_CHECK_INTERVAL = 16;
+
+    private static final Comparator<Deal> BY_COST = Comparator
+            .comparingInt(Deal::getEmeraldCost)
+            .thenComparing(Comparator.comparingInt(Deal::getEnchantmentLevel).reversed())
+            .thenComparingInt(Deal::getDistanceBucket)
+            .thenComparing(Deal::getVillagerUuid);
+
+    // 範囲内にいる村人 -> 現在の順位付けに使っている取引
+    private final Map<UUID, Deal> deals = new HashMap<>();
+    private final TreeSet<Deal> ranking = new TreeSet<>(BY_COST);
+
+    // 確認待ちの村人（同じ村人は1回だけ積む）
+    private final ArrayDeque<UUID> queue = new ArrayDeque<>();
+    private final Set<UUID> queued = new HashSet<>();
+
+    // 他のスレッドからの変更通知
+    private final ConcurrentLinkedQueue<UUID> pendingInvalidations = new ConcurrentLinkedQueue<>();
+    private volatile boolean pendingClear;
+
+    // 最後に範囲の周りを調べた時のプレイヤーの位置
+    private VillagerPosition scanOrigin;
+    private int radius = -1;
+
+    private int maxEntries;
+    private volatile List<Deal> top = Collections.emptyList();
+
+    /**
+     * 村人1体分の、範囲内で一番安いエンチャント本の取引
+     */
+    public static final class Deal {
+        private final UUID villagerUuid;
+        private final String enchantmentName;
+        private final int enchantmentLevel;
+        private final int emeraldCost;
+        private final int distance;
+        private final int distanceBucket;
+
+        private Deal(UUID villagerUuid, TradeEntry trade, int distance) {
+            this.villagerUuid = villagerUuid;
+            this.enchantmentName = trade.getEnchantmentName();
+            this.enchantmentLevel = trade.getEnchantmentLevel();
+            this.emeraldCost = trade.getEmeraldCost();
+            this.distance = distance;
+            this.distanceBucket = distance / BUCKET_BLOCKS;
+        }
+
+        public UUID getVillagerUuid() {
+            return villagerUuid;
+        }
+
+        public String getEnchantmentName() {
+            return enchantmentName;
+        }
+
+        public int getEnchantmentLevel() {
+            return enchantmentLevel;
+        }
+
+        public int getEmeraldCost() {
+            return emeraldCost;
+        }
+
+        /**
+         * 並べ直した時点でのプレイヤーからの距離（ブロック）
+         */
+        public int getDistance() {
+            return distance;
+        }
+
+        int getDistanceBucket() {
+            return distanceBucket;
+        }
+
+        /**
+         * 距離以外が同じで、同じ距離の区分にいるか
+         */
+        private boolean sameRank(UUID villagerUuid, TradeEntry trade, int distance) {
+            return this.villagerUuid.equals(villagerUuid)
+                    && emeraldCost == trade.getEmeraldCost()
+                    && enchantmentLevel == trade.getEnchantmentLevel()
+                    && enchantmentName.equals(trade.getEnchantmentName())
+                    && distanceBucket == distance / BUCKET_BLOCKS;
+        }
+    }
+
+    /**
+     * 村人のデータや位置が変わった時に呼ぶ（どのスレッドからでもよい）
+     */
+    public void invalidate(UUID villagerUuid) {
+        pendingInvalidations.add(villagerUuid);
+    }
+
+    /**
+     * データがまとめて置き換わった時に呼ぶ（どのスレッドからでもよい）
+     */
+    public void clear() {
+        pendingClear = true;
+    }
+
+    /**
+     * 安い順の取引（最大件数まで、読み取り専用）
+     */
+    public List<Deal> getTop() {
+        return top;
+    }
+
+    /**
+     * ランキングを更新する（クライアントティックごとに呼び出す）
+     * @param player プレイヤーの位置
+     * @param radius 対象にする距離（ブロック）
+     * @param maxEntries 表示する最大件数
+     * @param budgetNanos このティックで使ってよい時間
+     * @return 表示する取引が変わった場合true
+     */
+    public boolean update(VillagerPosition player, int radius, int maxEntries, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        boolean changed = false;
+
+        if (pendingClear || radius != this.radius) {
+            pendingClear = false;
+            pendingInvalidations.clear();
+            this.radius = radius;
+            changed = reset();
+        }
+
+        VillagerDataManager manager = VillagerDataManager.getInstance();
+        if (scanOrigin == null || !player.isWithin(scanOrigin, BUCKET_BLOCKS / 2)) {
+            // ある程度動いたら、範囲の周りのチャンクにいる村人を空間インデックスから拾って確認し直す
+            // 範囲から出た村人を外すため、今並んでいる村人も確認し直す
+            // 並べ直すのは、このうち範囲の出入りか距離の区分が変わった村人だけ
+            scanOrigin = player;
+            enqueueAll(deals.keySet());
+            int chunks = (radius >> 4) + 1;
+            manager.forEachVillagerInChunks(player.getDimension(),
+                    player.getChunkX() - chunks, player.getChunkZ() - chunks,
+                    player.getChunkX() + chunks, player.getChunkZ() + chunks,
+                    (uuid, position) -> enqueue(uuid));
+        }
+
+        UUID uuid;
+        while ((uuid = pendingInvalidations.poll()) != null) {
+            enqueue(uuid);
+        }
+
+        Map<UUID, VillagerTradeData> snapshot = manager.getAllVillagerData();
+        int processed = 0;
+        while (!queue.isEmpty()) {
+            if (processed++ % BUDGET_CHECK_INTERVAL == 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+            uuid = queue.poll();
+            queued.remove(uuid);
+            changed |= rerank(uuid, snapshot.get(uuid), player);
+        }
+
+        if (changed || maxEntries != this.maxEntries) {
+            this.maxEntries = maxEntries;
+            publishTop();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 確認待ちの村人の数
+     */
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    /**
+     * 村人1体を確認し、取引か距離の区分が変わっていれば並べ直す
+     */
+    private boolean rerank(UUID villagerUuid, VillagerTradeData data, VillagerPosition player) {
+        TradeEntry trade = data != null ? cheapestBook(data) : null;
+        VillagerPosition position = data != null ? data.getLastSeen() : null;
+        Deal current = deals.get(villagerUuid);
+
+        if (trade == null || !player.isWithin(position, radius)) {
+            if (current == null) {
+                return false;
+            }
+            deals.remove(villagerUuid);
+            ranking.remove(current);
+            return true;
+        }
+
+        int distance = (int) Math.sqrt(position.distanceSquared(player.getX(), player.getY(), player.getZ()));
+        if (current != null) {
+            if (current.sameRank(villagerUuid, trade, distance)) {
+                return false;
+            }
+            ranking.remove(current);
+        }
+        Deal deal = new Deal(villagerUuid, trade, distance);
+        deals.put(villagerUuid, deal);
+        ranking.add(deal);
+        return true;
+    }
+
+    private void publishTop() {
+        List<Deal> result = new ArrayList<>(Math.min(maxEntries, ranking.size()));
+        for (Deal deal : ranking) {
+            if (result.size() >= maxEntries) {
+                break;
+            }
+            result.add(deal);
+        }
+        top = Collections.unmodifiableList(result);
+    }
+
+    private boolean reset() {
+        boolean hadDeals = !deals.isEmpty();
+        deals.clear();
+        ranking.clear();
+        queue.clear();
+        queued.clear();
+        scanOrigin = null;
+        return hadDeals;
+    }
+
+    private void enqueue(UUID villagerUuid) {
+        if (queued.add(villagerUuid)) {
+            queue.add(villagerUuid);
+        }
+    }
+
+    private void enqueueAll(Set<UUID> villagerUuids) {
+        for (UUID villagerUuid : villagerUuids) {
+            enqueue(villagerUuid);
+        }
+    }
+
+    /**
+     * 村人の取引のうち、一番安いエンチャント本
+     * @return エンチャント本がない場合null
+     */
+    private static TradeEntry cheapestBook(VillagerTradeData data) {
+        TradeEntry cheapest = null;
+        for (TradeEntry trade : data.getTrades()) {
+            String name = trade.getEnchantmentName();
+            if (name == null || name.isEmpty()) {
+                continue;
+            }
+            if (cheapest == null || trade.getEmeraldCost() < cheapest.getEmeraldCost()) {
+                cheapest = trade;
+            }
+        }
+        return cheapest;
+    }
+}
@@ -5,7 +5,8 @@ package acaciatide.whohasmending.data;
  */
 public class TradeEntry {
     private transient String itemName; // JSON保存対象外
-    private String enchantmentName;
+    private String enchantmentName; // 翻訳済みの表示名
+    private String enchantmentId;   // レジストリID（"minecraft:mending"、古いデータにはない）
     private int enchantmentLevel;
     private int emeraldCost;
 
@@ -19,6 +20,11 @@ public class TradeEntry {
         this.emeraldCost = emeraldCost;
     }
 
+    public TradeEntry(String itemName, String enchantmentName, String enchantmentId, int enchantmentLevel, int emeraldCost) {
+        this(itemName, enchantmentName, enchantmentLevel, emeraldCost);
+        this.enchantmentId = enchantmentId;
+    }
+
     // Getters
     public String getItemName() {
         return itemName;
@@ -28,6 +34,14 @@ public class TradeEntry {
         return enchantmentName;
     }
 
+    /**
+     * エンチャントのレジストリID（言語設定に依存しない、検索のキーに使う）
+     * @return 分からない場合null
+     */
+    public String getEnchantmentId() {
+        return enchantmentId;
+    }
+
     public int getEnchantmentLevel() {
         return enchantmentLevel;
     }
@@ -45,6 +59,10 @@ public class TradeEntry {
         this.enchantmentName = enchantmentName;
     }
 
+    public void setEnchantmentId(String enchantmentId) {
+        this.enchantmentId = enchantmentId;
+    }
+
     public void setEnchantmentLevel(int enchantmentLevel) {
         this.enchantmentLevel = enchantmentLevel;
     }
@@ -123,5 +141,8 @@ public class TradeEntry {
         if (enchantmentName != null && enchantmentName.length() > 100) {
             enchantmentName = enchantmentName.substring(0, 100);
         }
+        if (enchantmentId != null && enchantmentId.length() > 100) {
+            enchantmentId = enchantmentId.substring(0, 100);
+        }
     }
 }
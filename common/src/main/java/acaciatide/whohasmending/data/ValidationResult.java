@@ -61,4 +61,12 @@ public class ValidationResult {
         return new ValidationResult(true, 0, 0, 0,
             "§7[WhoHasMending] No data to validate.");
     }
+
+    /**
+     * 読み込み中の結果を作成
+     */
+    public static ValidationResult loading(int loadedRecords) {
+        return new ValidationResult(true, loadedRecords, loadedRecords, 0,
+            "§7[WhoHasMending] Villager data is still loading (" + loadedRecords + " records so far).");
+    }
 }
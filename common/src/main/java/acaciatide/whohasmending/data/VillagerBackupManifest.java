@@ -0,0 +1,257 @@
+package acaciatide.whohasmending.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 1ワールド/サーバー分のバックアップの世代一覧（manifest.json）
+ * 復元・古い世代の削除・一覧表示はこのファイルだけを読み、ディレクトリの一覧やファイルの日時は参照しない
+ * 書き込みは一時ファイル経由で置き換えるため、途中で終了しても前の内容が残る
+ */
+public class VillagerBackupManifest {
+    private static final String NEXT_ID = "nextId";
+    private static final String GENERATIONS = "generations";
+    private static final String ID = "id";
+    private static final String CREATED = "created";
+    private static final String RECORDS = "records";
+    private static final String CHUNKS = "chunks";
+    private static final String SIZE = "size";
+    private static final String ADDED = "added";
+    private static final String CHECKSUM = "checksum";
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private long nextId = 1;
+    // 古い順
+    private final List<Generation> generations = new ArrayList<>();
+
+    /**
+     * バックアップ1世代分の情報
+     */
+    public static final class Generation {
+        private final long id;
+        private final long created;
+        private final int records;
+        private final int chunks;
+        private final long size;
+        private final long added;
+        private final String checksum;
+
+        /**
+         * @param id 世代番号（ワールドごとに1から増える）
+         * @param created 作成時刻（エポックミリ秒）
+         * @param records 村人の数
+         * @param chunks チャンクの数
+         * @param size この世代を構成するチャンクの合計サイズ（圧縮後のバイト数）
+         * @param added この世代で新しく書いたチャンクのサイズ（バイト数）
+         * @param checksum 世代ファイルのSHA-256（ない場合null）
+         */
+        public Generation(long id, long created, int records, int chunks, long size, long added, String checksum) {
+            this.id = id;
+            this.created = created;
+            this.records = records;
+            this.chunks = chunks;
+            this.size = size;
+            this.added = added;
+            this.checksum = checksum;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getAdded() {
+            return added;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * 一覧表示用の文字列（例: "#12 2026-10-17 12:00:01 - 250 villagers, 18.4 KB (+1.2 KB)"）
+         */
+        public String getDisplayText() {
+            StringBuilder sb = new StringBuilder();
+            sb.append('#').append(id).append(' ')
+                .append(DATE_FORMAT.format(Instant.ofEpochMilli(created).atZone(ZoneId.systemDefault())))
+                .append(" - ").append(records).append(" villagers, ").append(formatSize(size))
+                .append(" (+").append(formatSize(added)).append(')');
+            return sb.toString();
+        }
+
+        private static String formatSize(long bytes) {
+            if (bytes < 1024) {
+                return bytes + " B";
+            }
+            if (bytes < 1024 * 1024) {
+                return String.format("%.1f KB", bytes / 1024.0);
+            }
+            return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+    }
+
+    /**
+     * 世代の一覧（古い順、読み取り専用）
+     */
+    public List<Generation> getGenerations() {
+        return Collections.unmodifiableList(generations);
+    }
+
+    /**
+     * 次に作る世代の番号を払い出す
+     */
+    long allocateId() {
+        return nextId++;
+    }
+
+    void add(Generation generation) {
+        generations.add(generation);
+    }
+
+    /**
+     * 保持数を超えた古い世代を一覧から外す
+     * @return 外した世代（古い順）
+     */
+    List<Generation> trim(int maxGenerations) {
+        int excess = generations.size() - maxGenerations;
+        if (excess <= 0) {
+            return List.of();
+        }
+        List<Generation> removed = new ArrayList<>(generations.subList(0, excess));
+        generations.subList(0, excess).clear();
+        return removed;
+    }
+
+    /**
+     * マニフェストを読み込む
+     * @return ファイルがない場合は空のマニフェスト
+     */
+    static VillagerBackupManifest read(Path file) throws IOException {
+        VillagerBackupManifest manifest = new VillagerBackupManifest();
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case NEXT_ID -> manifest.nextId = reader.nextLong();
+                    case GENERATIONS -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            manifest.generations.add(readGeneration(reader));
+                        }
+                        reader.endArray();
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        // 番号が重ならないよう、記録されている世代より後の番号から払い出す
+        for (Generation generation : manifest.generations) {
+            manifest.nextId = Math.max(manifest.nextId, generation.id + 1);
+        }
+        return manifest;
+    }
+
+    private static Generation readGeneration(JsonReader reader) throws IOException {
+        long id = 0;
+        long created = 0;
+        int records = 0;
+        int chunks = 0;
+        long size = 0;
+        long added = 0;
+        String checksum = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case ID -> id = reader.nextLong();
+                case CREATED -> created = reader.nextLong();
+                case RECORDS -> records = reader.nextInt();
+                case CHUNKS -> chunks = reader.nextInt();
+                case SIZE -> size = reader.nextLong();
+                case ADDED -> added = reader.nextLong();
+                case CHECKSUM -> checksum = reader.nextString();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Generation(id, created, records, chunks, size, added, checksum);
+    }
+
+    /**
+     * マニフェストを一時ファイルに書いてから置き換える
+     */
+    void write(Path file) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8);
+             JsonWriter writer = new JsonWriter(out)) {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name(NEXT_ID).value(nextId);
+            writer.name(GENERATIONS).beginArray();
+            for (Generation generation : generations) {
+                writer.beginObject();
+                writer.name(ID).value(generation.id);
+                writer.name(CREATED).value(generation.created);
+                writer.name(RECORDS).value(generation.records);
+                writer.name(CHUNKS).value(generation.chunks);
+                writer.name(SIZE).value(generation.size);
+                writer.name(ADDED).value(generation.added);
+                writer.name(CHECKSUM).value(generation.checksum);
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+
+        try {
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
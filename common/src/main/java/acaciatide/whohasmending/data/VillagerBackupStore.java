@@ -0,0 +1,466 @@
+package acaciatide.whohasmending.data;
+
+import acaciatide.whohasmending.Whohasmending;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 1ワールド/サーバー分のバックアップを、内容のハッシュを名前にした圧縮チャンクで保存する
+ * 村人はUUIDの上位ビットで決まった数のチャンクに振り分けるため、変わっていない村人のチャンクは世代をまたいで共有される
+ * よく変わる最後に見かけた位置は取引とは別のチャンク（名前が"p-"で始まる）に分け、村人が動いても取引のチャンクは書き直さない
+ * 世代ファイルにはその世代を構成するチャンクの名前とサイズを書き、世代の一覧はマニフェストで管理する
+ * 書き込みはライタースレッドから順番に行われる前提
+ */
+public class VillagerBackupStore {
+    // 保持する世代数の既定値
+    public static final int DEFAULT_MAX_GENERATIONS = 30;
+    // チャンク数（2の累乗の指数）。村人の数が増えても振り分け先が変わらないよう固定する
+    private static final int CHUNK_BITS = 8;
+
+    private static final String MANIFEST_FILE = "manifest.json";
+    private static final String CHUNK_DIRECTORY = "chunks";
+    private static final String CHUNK_SUFFIX = ".z";
+    private static final String POSITIONS_PREFIX = "p-";
+    private static final String GENERATION_SUFFIX = ".gen";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final String worldId;
+    private final Path directory;
+    private final Path chunkDirectory;
+    private final Path manifestPath;
+    private final int maxGenerations;
+
+    // 初回の参照時に読み込み、以降はメモリ上のものを更新して書き出す
+    private VillagerBackupManifest manifest;
+    // このセッションで書いたか中身を確かめたチャンク（名前 -> サイズ）。再利用の度に読み直さないために使う
+    private final Map<String, Long> verifiedChunks = new HashMap<>();
+
+    /**
+     * @param directory このワールド専用のバックアップディレクトリ
+     * @param worldId ワールドまたはサーバーの識別子（ログ用）
+     * @param maxGenerations 保持する世代数
+     */
+    public VillagerBackupStore(Path directory, String worldId, int maxGenerations) {
+        this.worldId = worldId;
+        this.directory = directory;
+        this.chunkDirectory = directory.resolve(CHUNK_DIRECTORY);
+        this.manifestPath = directory.resolve(MANIFEST_FILE);
+        this.maxGenerations = Math.max(1, maxGenerations);
+    }
+
+    /**
+     * 新しい世代を作成し、保持数を超えた古い世代と参照されなくなったチャンクを削除する
+     * チャンク→世代ファイル→マニフェストの順に書くため、途中で終了してもマニフェストは完全な世代だけを指す
+     * @param data バックアップするデータ（呼び出し後に変更されないもの）
+     */
+    public void write(Map<UUID, VillagerTradeData> data) throws IOException {
+        VillagerBackupManifest manifest = manifest();
+        Files.createDirectories(chunkDirectory);
+
+        Map<String, Long> chunks = new LinkedHashMap<>();
+        long size = 0;
+        long added = 0;
+        int written = 0;
+        for (Map.Entry<UUID, VillagerTradeData>[] chunk : partition(data)) {
+            byte[][] contents = {encodeRecords(chunk), encodePositions(chunk)};
+            for (int i = 0; i < contents.length; i++) {
+                if (contents[i] == null) {
+                    continue; // 位置の分からない村人だけのチャンク
+                }
+                String name = (i == 0 ? "" : POSITIONS_PREFIX) + hash(contents[i]);
+
+                // 同じ内容の壊れていないチャンクが既にあれば書かない
+                Path chunkPath = chunkDirectory.resolve(name + CHUNK_SUFFIX);
+                Long chunkSize = reusableSize(name, chunkPath);
+                if (chunkSize == null) {
+                    byte[] compressed = compress(contents[i]);
+                    writeAtomically(chunkPath, compressed);
+                    chunkSize = (long) compressed.length;
+                    verifiedChunks.put(name, chunkSize);
+                    added += chunkSize;
+                    written++;
+                }
+                chunks.put(name, chunkSize);
+                size += chunkSize;
+            }
+        }
+
+        long id = manifest.allocateId();
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, Long> chunk : chunks.entrySet()) {
+            lines.append(chunk.getKey()).append(' ').append(chunk.getValue()).append('\n');
+        }
+        byte[] generationFile = lines.toString().getBytes(StandardCharsets.UTF_8);
+        writeAtomically(generationPath(id), generationFile);
+
+        manifest.add(new VillagerBackupManifest.Generation(id, System.currentTimeMillis(), data.size(),
+                chunks.size(), size, added, hash(generationFile)));
+        List<VillagerBackupManifest.Generation> removed = manifest.trim(maxGenerations);
+        manifest.write(manifestPath);
+        Whohasmending.LOGGER.info("Created backup #{} for world: {} ({} records, {} of {} chunks written)",
+                id, worldId, data.size(), written, chunks.size());
+
+        if (!removed.isEmpty()) {
+            deleteGenerations(removed);
+        }
+    }
+
+    /**
+     * 最新の世代から読み込む（読めない世代はとばして1つ前の世代を試す）
+     * 世代ファイルとチャンクはチェックサムを確かめてから使う
+     * 位置のチャンクを先に読み、取引のチャンクから読み込んだレコードに戻す
+     * @param sink 読み込んだレコードの受け取り先
+     * @return 世代が見つかった場合true
+     */
+    public boolean read(VillagerRecordSink sink) {
+        List<VillagerBackupManifest.Generation> generations;
+        try {
+            generations = manifest().getGenerations();
+        } catch (IOException e) {
+            Whohasmending.LOGGER.error("Failed to read backup manifest for world: {}", worldId, e);
+            return false;
+        }
+
+        for (int i = generations.size() - 1; i >= 0; i--) {
+            VillagerBackupManifest.Generation generation = generations.get(i);
+            Path chunk = null;
+            try {
+                Set<String> names = readChunks(generation).keySet();
+                Map<UUID, VillagerPosition> positions = new HashMap<>();
+                for (String name : names) {
+                    if (name.startsWith(POSITIONS_PREFIX)) {
+                        chunk = chunkDirectory.resolve(name + CHUNK_SUFFIX);
+                        try (JsonReader reader = chunkReader(name, chunk)) {
+                            readPositions(reader, positions);
+                        }
+                    }
+                }
+
+                int count = 0;
+                VillagerRecordSink withPositions = withPositions(sink, positions);
+                for (String name : names) {
+                    if (!name.startsWith(POSITIONS_PREFIX)) {
+                        chunk = chunkDirectory.resolve(name + CHUNK_SUFFIX);
+                        try (JsonReader reader = chunkReader(name, chunk)) {
+                            count += VillagerDataStorage.readRecords(reader, "backup #" + generation.getId(), withPositions, true);
+                        }
+                    }
+                }
+                chunk = null;
+                Whohasmending.LOGGER.info("Restored {} records from backup #{}", count, generation.getId());
+                return true;
+            } catch (IOException | RuntimeException e) {
+                Whohasmending.LOGGER.warn("Failed to read backup #{}, trying an older one", generation.getId(), e);
+                sink.reset();
+                // 壊れたチャンクが残っていると同じ内容を書き直せないため削除しておく
+                if (chunk != null) {
+                    verifiedChunks.remove(chunkName(chunk));
+                    deleteQuietly(chunk);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 保持している世代の一覧（古い順）
+     */
+    public List<VillagerBackupManifest.Generation> list() throws IOException {
+        return List.copyOf(manifest().getGenerations());
+    }
+
+    private VillagerBackupManifest manifest() throws IOException {
+        if (manifest == null) {
+            manifest = VillagerBackupManifest.read(manifestPath);
+        }
+        return manifest;
+    }
+
+    /**
+     * 既にあるチャンクを使い回せる場合はそのサイズ
+     * このセッションでまだ確かめていないチャンクは、読み込んでハッシュが名前と合うか確かめる
+     * @return ない・壊れている場合null（書き直す）
+     */
+    private Long reusableSize(String name, Path chunkPath) throws IOException {
+        if (!Files.exists(chunkPath)) {
+            verifiedChunks.remove(name);
+            return null;
+        }
+        Long known = verifiedChunks.get(name);
+        if (known != null && Files.size(chunkPath) == known) {
+            return known;
+        }
+
+        try {
+            byte[] compressed = Files.readAllBytes(chunkPath);
+            if (hashOf(name).equals(hash(decompress(compressed)))) {
+                verifiedChunks.put(name, (long) compressed.length);
+                return (long) compressed.length;
+            }
+        } catch (IOException e) {
+            // 展開できないものも壊れているとみなす
+        }
+        Whohasmending.LOGGER.warn("Backup chunk {} of world: {} is corrupted, writing it again", name, worldId);
+        verifiedChunks.remove(name);
+        return null;
+    }
+
+    /**
+     * マニフェストから外した世代の世代ファイルと、残った世代から参照されないチャンクを削除
+     */
+    private void deleteGenerations(List<VillagerBackupManifest.Generation> removed) throws IOException {
+        Set<String> candidates = new HashSet<>();
+        for (VillagerBackupManifest.Generation generation : removed) {
+            try {
+                candidates.addAll(readChunks(generation).keySet());
+            } catch (IOException e) {
+                Whohasmending.LOGGER.warn("Failed to read old backup #{} of world: {}", generation.getId(), worldId, e);
+            }
+            Files.deleteIfExists(generationPath(generation.getId()));
+            Whohasmending.LOGGER.debug("Deleted old backup #{} of world: {}", generation.getId(), worldId);
+        }
+
+        for (VillagerBackupManifest.Generation generation : manifest().getGenerations()) {
+            if (candidates.isEmpty()) {
+                break;
+            }
+            candidates.removeAll(readChunks(generation).keySet());
+        }
+
+        for (String name : candidates) {
+            Files.deleteIfExists(chunkDirectory.resolve(name + CHUNK_SUFFIX));
+            verifiedChunks.remove(name);
+        }
+        Whohasmending.LOGGER.debug("Deleted {} unreferenced backup chunks for world: {}", candidates.size(), worldId);
+    }
+
+    /**
+     * 世代ファイルを読み、チェックサムを確かめる
+     * @return チャンクの名前 -> サイズ（世代ファイルに書いた順）
+     */
+    private Map<String, Long> readChunks(VillagerBackupManifest.Generation generation) throws IOException {
+        byte[] file = Files.readAllBytes(generationPath(generation.getId()));
+        if (generation.getChecksum() != null && !generation.getChecksum().equals(hash(file))) {
+            throw new IOException("Checksum mismatch in backup #" + generation.getId());
+        }
+
+        Map<String, Long> chunks = new LinkedHashMap<>();
+        for (String line : new String(file, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] parts = line.trim().split(" ");
+            chunks.put(parts[0], parts.length > 1 ? Long.parseLong(parts[1]) : 0L);
+        }
+        return chunks;
+    }
+
+    private Path generationPath(long id) {
+        return directory.resolve(id + GENERATION_SUFFIX);
+    }
+
+    /**
+     * チャンクを展開し、ハッシュを確かめてから読み込み用に開く
+     */
+    private static JsonReader chunkReader(String name, Path chunk) throws IOException {
+        byte[] content = decompress(Files.readAllBytes(chunk));
+        if (!hashOf(name).equals(hash(content))) {
+            throw new IOException("Checksum mismatch in backup chunk: " + chunk.getFileName());
+        }
+        return new JsonReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * チャンクの名前から内容のハッシュを取り出す
+     */
+    private static String hashOf(String name) {
+        return name.startsWith(POSITIONS_PREFIX) ? name.substring(POSITIONS_PREFIX.length()) : name;
+    }
+
+    private static String chunkName(Path chunk) {
+        String fileName = chunk.getFileName().toString();
+        return fileName.substring(0, fileName.length() - CHUNK_SUFFIX.length());
+    }
+
+    /**
+     * 受け取ったレコードに位置を戻してから渡すシンク
+     * 位置のチャンクがない古い世代は、取引のチャンクに含まれている位置をそのまま使う
+     */
+    private static VillagerRecordSink withPositions(VillagerRecordSink sink, Map<UUID, VillagerPosition> positions) {
+        return new VillagerRecordSink() {
+            @Override
+            public void put(UUID villagerUuid, VillagerTradeData data) {
+                VillagerPosition position = positions.get(villagerUuid);
+                if (position != null) {
+                    data.setLastSeen(position);
+                }
+                sink.put(villagerUuid, data);
+            }
+
+            @Override
+            public void remove(UUID villagerUuid) {
+                sink.remove(villagerUuid);
+            }
+
+            @Override
+            public void reset() {
+                sink.reset();
+            }
+        };
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            Whohasmending.LOGGER.warn("Failed to delete broken backup chunk: {}", file);
+        }
+    }
+
+    /**
+     * UUIDの上位ビットで村人をチャンクに振り分け、各チャンク内はUUID順に並べる
+     * 振り分け先は村人の数によらないため、村人が増えても他のチャンクは変わらない
+     * 同じ内容なら同じバイト列になるよう、並び順は元のMapに依存させない
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Map.Entry<UUID, VillagerTradeData>[]> partition(Map<UUID, VillagerTradeData> data) {
+        List<List<Map.Entry<UUID, VillagerTradeData>>> buckets = new ArrayList<>(1 << CHUNK_BITS);
+        for (int i = 0; i < 1 << CHUNK_BITS; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (Map.Entry<UUID, VillagerTradeData> entry : data.entrySet()) {
+            int bucket = (int) (entry.getKey().getMostSignificantBits() >>> (64 - CHUNK_BITS));
+            buckets.get(bucket).add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+
+        List<Map.Entry<UUID, VillagerTradeData>[]> result = new ArrayList<>();
+        for (List<Map.Entry<UUID, VillagerTradeData>> bucket : buckets) {
+            if (bucket.isEmpty()) {
+                continue;
+            }
+            Map.Entry<UUID, VillagerTradeData>[] entries = bucket.toArray(new Map.Entry[0]);
+            Arrays.sort(entries, Map.Entry.comparingByKey());
+            result.add(entries);
+        }
+        return result;
+    }
+
+    /**
+     * チャンクの取引をJSON（インデントなし）にする（位置は含めない）
+     */
+    private static byte[] encodeRecords(Map.Entry<UUID, VillagerTradeData>[] chunk) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+             JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            for (Map.Entry<UUID, VillagerTradeData> entry : chunk) {
+                VillagerTradeData data = entry.getValue();
+                writer.name(entry.getKey().toString());
+                VillagerTradeDataCodec.write(writer, data.getLastSeen() != null ? data.withLastSeen(null) : data);
+            }
+            writer.endObject();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * チャンクの村人の位置をJSON（UUID -> 位置）にする
+     * @return 位置の分かる村人がいない場合null
+     */
+    private static byte[] encodePositions(Map.Entry<UUID, VillagerTradeData>[] chunk) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean any = false;
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+             JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            for (Map.Entry<UUID, VillagerTradeData> entry : chunk) {
+                VillagerPosition position = entry.getValue().getLastSeen();
+                if (position != null) {
+                    writer.name(entry.getKey().toString());
+                    VillagerTradeDataCodec.writePosition(writer, position);
+                    any = true;
+                }
+            }
+            writer.endObject();
+        }
+        return any ? bytes.toByteArray() : null;
+    }
+
+    private static void readPositions(JsonReader reader, Map<UUID, VillagerPosition> positions) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            VillagerPosition position = VillagerTradeDataCodec.readPosition(reader);
+            try {
+                if (position != null) {
+                    positions.put(UUID.fromString(key), position);
+                }
+            } catch (IllegalArgumentException e) {
+                Whohasmending.LOGGER.warn("Invalid UUID in backup positions, skipping: {}", key);
+            }
+        }
+        reader.endObject();
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] compress(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(bytes)) {
+            deflater.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * 一時ファイルに書いてから置き換える
+     */
+    private static void writeAtomically(Path path, byte[] content) throws IOException {
+        Path tempFile = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+        Files.write(tempFile, content);
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+        WhohasmendingMetrics.BACKUP_BYTES_WRITTEN.add(content.length);
+    }
+}
@@ -0,0 +1,300 @@
+package acaciatide.whohasmending.data;
+
+import acaciatide.whohasmending.Whohasmending;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * 村人取引データのバイナリ形式（メモリマップ用）の読み書きを担当
+ * 1レコードにつき最初の取引1件（エンチャントIDを含む）と最後に見かけた位置を固定長で保存する
+ */
+public class VillagerBinaryStorage {
+
+    /**
+     * バイナリファイルをメモリマップして読み込む
+     * バイナリファイルがない場合はJSON（とジャーナル）から取り込んで変換する
+     * @param worldId ワールドまたはサーバーの識別子
+     * @param binaryPath バイナリファイルのパス
+     * @param jsonPath JSONファイルのパス
+     * @param jsonLoader JSON（とジャーナル）からの読み込み
+     * @return 村人データのMap (UUID -> VillagerTradeData)
+     */
+    public static Map<UUID, VillagerTradeData> load(String worldId, Path binaryPath, Path jsonPath,
+                                                    Supplier<Map<UUID, VillagerTradeData>> jsonLoader) {
+        try {
+            Path mappedPath = promotePendingFile(binaryPath);
+
+            if (needsImport(binaryPath, jsonPath)) {
+                Map<UUID, VillagerTradeData> imported = jsonLoader.get();
+                write(binaryPath, null, imported, Collections.emptySet());
+                Whohasmending.LOGGER.info("Imported {} villager records from JSON into binary store for world: {}", imported.size(), worldId);
+            }
+
+            if (!Files.exists(mappedPath)) {
+                Whohasmending.LOGGER.info("No existing data file for world: {}", worldId);
+                return new MappedVillagerMap(null);
+            }
+
+            MappedVillagerTable table = MappedVillagerTable.open(mappedPath);
+            Whohasmending.LOGGER.info("Mapped {} villager records for world: {}", table.size(), worldId);
+            return new MappedVillagerMap(table);
+
+        } catch (IOException | RuntimeException e) {
+            // バイナリが読めない場合はJSON（エクスポート・バックアップ）から復旧する
+            // 空のデータとして読み込むと、次の保存でバイナリが空で上書きされるため
+            Whohasmending.LOGGER.error("Failed to map binary data file for world: {}, falling back to JSON", worldId, e);
+            MappedVillagerMap fallback = new MappedVillagerMap(null);
+            fallback.putAll(jsonLoader.get());
+            return fallback;
+        }
+    }
+
+    /**
+     * データをバイナリファイルに保存
+     * MappedVillagerMapの場合、変更のないレコードはマップ済みのテーブルからそのままコピーする
+     */
+    public static void save(Path binaryPath, Map<UUID, VillagerTradeData> data) throws IOException {
+        if (data instanceof MappedVillagerMap mapped) {
+            write(binaryPath, mapped.base(), mapped.overlay(), mapped.removed());
+        } else {
+            write(binaryPath, null, data, Collections.emptySet());
+        }
+    }
+
+    /**
+     * テーブルと差分をUUID順にマージして書き出す
+     */
+    private static void write(Path binaryPath, MappedVillagerTable base, Map<UUID, VillagerTradeData> overlay, Set<UUID> removed) throws IOException {
+        // 既存テーブルの名前番号はそのまま引き継ぎ、新しい名前だけ末尾に追加する
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> nameIndex = new HashMap<>();
+        if (base != null) {
+            for (String name : base.names()) {
+                nameIndex.putIfAbsent(name, names.size());
+                names.add(name);
+            }
+        }
+
+        List<Map.Entry<UUID, VillagerTradeData>> sortedOverlay = new ArrayList<>(overlay.entrySet());
+        sortedOverlay.sort((a, b) -> MappedVillagerTable.compare(
+                a.getKey().getMostSignificantBits(), a.getKey().getLeastSignificantBits(),
+                b.getKey().getMostSignificantBits(), b.getKey().getLeastSignificantBits()));
+        for (Map.Entry<UUID, VillagerTradeData> entry : sortedOverlay) {
+            addName(firstEnchantmentName(entry.getValue()), names, nameIndex);
+            addName(firstEnchantmentId(entry.getValue()), names, nameIndex);
+            VillagerPosition position = entry.getValue().getLastSeen();
+            if (position != null) {
+                addName(position.getDimension(), names, nameIndex);
+            }
+        }
+
+        List<byte[]> encodedNames = new ArrayList<>(names.size());
+        int namesBytes = 0;
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            encodedNames.add(bytes);
+            namesBytes += 2 + bytes.length;
+        }
+
+        int baseCount = base != null ? base.size() : 0;
+        int maxRecords = baseCount + sortedOverlay.size();
+        ByteBuffer out = ByteBuffer.allocate(16 + namesBytes + maxRecords * MappedVillagerTable.RECORD_BYTES);
+        out.putInt(MappedVillagerTable.MAGIC);
+        out.putInt(MappedVillagerTable.VERSION);
+        out.putInt(0); // レコード数は最後に書き込む
+        out.putInt(names.size());
+        for (byte[] bytes : encodedNames) {
+            out.putShort((short) bytes.length);
+            out.put(bytes);
+        }
+
+        int recordCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < baseCount || j < sortedOverlay.size()) {
+            if (j >= sortedOverlay.size()) {
+                if (writeBaseRecord(base, i++, overlay, removed, out)) {
+                    recordCount++;
+                }
+                continue;
+            }
+
+            UUID overlayUuid = sortedOverlay.get(j).getKey();
+            int cmp = i < baseCount
+                    ? MappedVillagerTable.compare(base.msbAt(i), base.lsbAt(i),
+                            overlayUuid.getMostSignificantBits(), overlayUuid.getLeastSignificantBits())
+                    : 1;
+
+            if (cmp < 0) {
+                if (writeBaseRecord(base, i++, overlay, removed, out)) {
+                    recordCount++;
+                }
+            } else {
+                if (cmp == 0) {
+                    i++; // 上書きされたレコード
+                }
+                writeRecord(sortedOverlay.get(j).getKey(), sortedOverlay.get(j).getValue(), nameIndex, out);
+                j++;
+                recordCount++;
+            }
+        }
+        out.putInt(8, recordCount);
+        out.flip();
+
+        // アトミック書き込み（一時ファイル経由）
+        Files.createDirectories(binaryPath.getParent());
+        Path tempFile = binaryPath.resolveSibling(binaryPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(false);
+        }
+        WhohasmendingMetrics.BYTES_WRITTEN.add(out.limit());
+
+        try {
+            Files.move(tempFile, binaryPath, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(getPendingPath(binaryPath));
+        } catch (IOException e) {
+            // マップ中のファイルは置き換えられない環境がある（Windows）ため、次回読み込み時に置き換える
+            Files.move(tempFile, getPendingPath(binaryPath), StandardCopyOption.REPLACE_EXISTING);
+            Whohasmending.LOGGER.debug("Binary data file is in use, deferred replacement: {}", binaryPath);
+        }
+    }
+
+    /**
+     * テーブル側のレコードを（削除・上書きされていなければ）そのままコピー
+     */
+    private static boolean writeBaseRecord(MappedVillagerTable base, int index, Map<UUID, VillagerTradeData> overlay,
+                                           Set<UUID> removed, ByteBuffer out) {
+        if (!removed.isEmpty() || !overlay.isEmpty()) {
+            UUID uuid = base.uuidAt(index);
+            if (removed.contains(uuid) || overlay.containsKey(uuid)) {
+                return false;
+            }
+        }
+        base.copyRecord(index, out);
+        return true;
+    }
+
+    private static void addName(String name, List<String> names, Map<String, Integer> nameIndex) {
+        if (name != null && !nameIndex.containsKey(name)) {
+            nameIndex.put(name, names.size());
+            names.add(name);
+        }
+    }
+
+    /**
+     * 1レコードを固定長で書き込む
+     */
+    private static void writeRecord(UUID uuid, VillagerTradeData data, Map<String, Integer> nameIndex, ByteBuffer out) {
+        out.putLong(uuid.getMostSignificantBits());
+        out.putLong(uuid.getLeastSignificantBits());
+
+        List<TradeEntry> trades = data.getTrades();
+        String id = firstEnchantmentId(data);
+        if (trades == null || trades.isEmpty() || trades.get(0) == null) {
+            out.putShort(MappedVillagerTable.NO_TRADE);
+            out.put((byte) 0);
+            out.put((byte) 0);
+        } else {
+            TradeEntry trade = trades.get(0);
+            String name = firstEnchantmentName(data);
+            out.putShort(name != null ? nameIndex.get(name).shortValue() : MappedVillagerTable.NO_ENCHANTMENT);
+            out.put((byte) Math.max(0, Math.min(255, trade.getEnchantmentLevel())));
+            out.put((byte) Math.max(0, Math.min(255, trade.getEmeraldCost())));
+        }
+
+        VillagerPosition position = data.getLastSeen();
+        if (position == null) {
+            out.putShort(MappedVillagerTable.NO_POSITION);
+            out.putInt(0);
+            out.putInt(0);
+            out.putInt(0);
+        } else {
+            out.putShort(nameIndex.get(position.getDimension()).shortValue());
+            out.putInt(position.getX());
+            out.putInt(position.getY());
+            out.putInt(position.getZ());
+        }
+
+        out.putShort(id != null ? nameIndex.get(id).shortValue() : MappedVillagerTable.NO_ENCHANTMENT_ID);
+    }
+
+    private static String firstEnchantmentName(VillagerTradeData data) {
+        List<TradeEntry> trades = data.getTrades();
+        if (trades == null || trades.isEmpty() || trades.get(0) == null) {
+            return null;
+        }
+        String name = trades.get(0).getEnchantmentName();
+        return name == null || name.isEmpty() ? null : name;
+    }
+
+    private static String firstEnchantmentId(VillagerTradeData data) {
+        List<TradeEntry> trades = data.getTrades();
+        if (trades == null || trades.isEmpty() || trades.get(0) == null) {
+            return null;
+        }
+        String id = trades.get(0).getEnchantmentId();
+        return id == null || id.isEmpty() ? null : id;
+    }
+
+    /**
+     * JSONから取り込む必要があるか
+     * JSON形式で保存するとバイナリは削除されるため、バイナリがなくJSONがある場合のみ取り込む
+     */
+    private static boolean needsImport(Path binaryPath, Path jsonPath) {
+        return !Files.exists(binaryPath) && Files.exists(jsonPath);
+    }
+
+    /**
+     * バイナリファイルを削除（JSON形式で保存した後、古いバイナリが読まれないようにする）
+     */
+    public static void delete(Path binaryPath) {
+        try {
+            Files.deleteIfExists(binaryPath);
+            Files.deleteIfExists(getPendingPath(binaryPath));
+        } catch (IOException e) {
+            Whohasmending.LOGGER.warn("Failed to delete binary data file: {}", binaryPath, e);
+        }
+    }
+
+    /**
+     * 前回置き換えられなかったファイルがあれば正式なファイルにする
+     * @return マップすべきファイルのパス（置き換えに失敗した場合は保留中のファイル）
+     */
+    private static Path promotePendingFile(Path binaryPath) {
+        Path pending = getPendingPath(binaryPath);
+        if (!Files.exists(pending)) {
+            return binaryPath;
+        }
+        try {
+            Files.move(pending, binaryPath, StandardCopyOption.REPLACE_EXISTING);
+            return binaryPath;
+        } catch (IOException e) {
+            Whohasmending.LOGGER.warn("Failed to replace binary data file with pending version: {}", binaryPath, e);
+            return pending;
+        }
+    }
+
+    private static Path getPendingPath(Path binaryPath) {
+        return binaryPath.resolveSibling(binaryPath.getFileName() + ".pending");
+    }
+}
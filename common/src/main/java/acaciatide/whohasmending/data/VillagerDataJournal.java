@@ -0,0 +1,225 @@
+package acaciatide.whohasmending.data;
+
+import acaciatide.whohasmending.Whohasmending;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 村人取引データの追記型ジャーナルを担当
+ * 1行に1つの変更（登録・削除）をJSONで記録し、スナップショット読み込み後に再生する
+ */
+public class VillagerDataJournal {
+    private static final String OP_PUT = "put";
+    private static final String OP_REMOVE = "remove";
+
+    /**
+     * ジャーナルの1レコード
+     */
+    public static class Record {
+        private String op;
+        private String uuid;
+        private VillagerTradeData data;
+
+        public Record() {
+        }
+
+        private Record(String op, String uuid, VillagerTradeData data) {
+            this.op = op;
+            this.uuid = uuid;
+            this.data = data;
+        }
+
+        boolean isRemove() {
+            return OP_REMOVE.equals(op);
+        }
+
+        UUID getUuid() {
+            return UUID.fromString(uuid);
+        }
+
+        VillagerTradeData getData() {
+            return data;
+        }
+    }
+
+    /**
+     * 登録・更新レコードを作成
+     */
+    public static Record put(UUID villagerUuid, VillagerTradeData data) {
+        return new Record(OP_PUT, villagerUuid.toString(), data);
+    }
+
+    /**
+     * 削除レコードを作成
+     */
+    public static Record remove(UUID villagerUuid) {
+        return new Record(OP_REMOVE, villagerUuid.toString(), null);
+    }
+
+    /**
+     * レコードをまとめて追記し、1回のfsyncで確定させる（グループコミット）
+     * @param journalPath ジャーナルファイルのパス
+     * @param records 追記するレコード
+     * @return 追記後のジャーナルのサイズ（バイト）
+     */
+    public static long append(Path journalPath, List<Record> records) throws IOException {
+        StringWriter out = new StringWriter();
+        for (Record record : records) {
+            writeRecord(new JsonWriter(out), record);
+            out.write('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.UTF_8));
+
+        Files.createDirectories(journalPath.getParent());
+        try (FileChannel channel = FileChannel.open(journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            WhohasmendingMetrics.BYTES_WRITTEN.add(buffer.limit());
+            return channel.size();
+        }
+    }
+
+    /**
+     * ジャーナルを再生してデータに反映する
+     * 書き込み途中でクラッシュした末尾の行は無視する
+     * @param journalPath ジャーナルファイルのパス
+     * @param sink 反映先（スナップショットを読み込んだ後のもの）
+     * @return 再生したレコード数
+     */
+    public static int replay(Path journalPath, VillagerRecordSink sink) {
+        if (!Files.exists(journalPath)) {
+            return 0;
+        }
+
+        int applied = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                Record record;
+                try {
+                    JsonReader lineReader = new JsonReader(new StringReader(line));
+                    record = readRecord(lineReader);
+                    if (lineReader.peek() != JsonToken.END_DOCUMENT) {
+                        throw new MalformedJsonException("Trailing data in journal record");
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    Whohasmending.LOGGER.warn("Stopping journal replay at unreadable record in: {}", journalPath);
+                    break;
+                }
+
+                if (record != null && apply(record, sink)) {
+                    applied++;
+                }
+            }
+        } catch (IOException e) {
+            Whohasmending.LOGGER.error("Failed to read journal: {}", journalPath, e);
+        }
+        return applied;
+    }
+
+    /**
+     * 1レコードを1行のJSONとして書き込む
+     */
+    private static void writeRecord(JsonWriter writer, Record record) throws IOException {
+        writer.beginObject();
+        writer.name("op").value(record.op);
+        writer.name("uuid").value(record.uuid);
+        if (record.data != null) {
+            writer.name("data");
+            VillagerTradeDataCodec.write(writer, record.data);
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * 1行のJSONからレコードを読み込む（未知のフィールドは読み飛ばす）
+     */
+    private static Record readRecord(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            return null;
+        }
+
+        Record record = new Record();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case "op" -> record.op = reader.nextString();
+                case "uuid" -> record.uuid = reader.nextString();
+                case "data" -> record.data = VillagerTradeDataCodec.read(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return record;
+    }
+
+    /**
+     * 1レコードをデータに反映
+     */
+    private static boolean apply(Record record, VillagerRecordSink sink) {
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(record.uuid);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            Whohasmending.LOGGER.warn("Invalid UUID in journal, skipping: {}", record.uuid);
+            return false;
+        }
+
+        if (OP_REMOVE.equals(record.op)) {
+            sink.remove(uuid);
+            return true;
+        }
+
+        if (OP_PUT.equals(record.op) && record.data != null) {
+            record.data.setVillagerUuid(uuid);
+            if (!record.data.isValid()) {
+                record.data.sanitize();
+            }
+            sink.put(uuid, record.data);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * ジャーナルを削除（スナップショットに取り込まれた後に呼ぶ）
+     */
+    public static void delete(Path journalPath) {
+        try {
+            Files.deleteIfExists(journalPath);
+        } catch (IOException e) {
+            Whohasmending.LOGGER.warn("Failed to delete journal: {}", journalPath, e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package acaciatide.whohasmending.data;
+
+import acaciatide.whohasmending.Whohasmending;
+import acaciatide.whohasmending.jfr.LoadEvent;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ワールド参加時にバックグラウンドでデータを読み込むタスク
+ * 読み込んだレコードは一定件数ごとにバッチとして公開し、クライアントティックで少しずつ反映する
+ */
+public class VillagerDataLoader implements Runnable, VillagerRecordSink {
+    private static final int BATCH_SIZE = 256;
+
+    private final VillagerStore store;
+    private final ConcurrentLinkedQueue<Batch> published = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean cancelled;
+
+    // 読み込みスレッドのみが触る作成中のバッチ
+    private Batch current = new Batch();
+    // 読み込んだレコード数（JFRのイベント用）
+    private int recordCount;
+
+    /**
+     * 読み込み結果の1バッチ
+     */
+    static class Batch {
+        // nullでない場合、それまでに反映したデータを全てこの内容で置き換える
+        Map<UUID, VillagerTradeData> base;
+        final List<UUID> uuids = new ArrayList<>();
+        // nullの要素は削除を表す
+        final List<VillagerTradeData> values = new ArrayList<>();
+        boolean last;
+    }
+
+    public VillagerDataLoader(VillagerStore store) {
+        this.store = store;
+    }
+
+    public String getWorldId() {
+        return store.getWorldId();
+    }
+
+    @Override
+    public void run() {
+        String worldId = store.getWorldId();
+        LoadEvent event = new LoadEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            if (cancelled) {
+                return;
+            }
+
+            store.load(this);
+            WhohasmendingMetrics.LOAD_TIME.recordSince(start);
+
+            Whohasmending.LOGGER.info("Finished loading villager data for world: {} in {}ms",
+                    worldId, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (CancellationException e) {
+            Whohasmending.LOGGER.debug("Cancelled loading villager data for world: {}", worldId);
+        } catch (RuntimeException e) {
+            Whohasmending.LOGGER.error("Failed to load villager data for world: {}", worldId, e);
+        } finally {
+            current.last = true;
+            publish();
+            finished.countDown();
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.worldId = worldId;
+                event.records = recordCount;
+                event.cancelled = cancelled;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public void put(UUID villagerUuid, VillagerTradeData data) {
+        add(villagerUuid, data);
+    }
+
+    @Override
+    public void remove(UUID villagerUuid) {
+        add(villagerUuid, null);
+    }
+
+    @Override
+    public void reset() {
+        // まだ公開していない分は捨て、受け取り側にも置き換えを指示する
+        current = new Batch();
+        current.base = new VillagerDataTable();
+        recordCount = 0;
+    }
+
+    @Override
+    public void replace(Map<UUID, VillagerTradeData> data) {
+        // メモリマップしたデータなどは1件ずつ流さず、そのまま受け取り側に渡す
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        current = new Batch();
+        current.base = data;
+        recordCount = data.size();
+    }
+
+    private void add(UUID villagerUuid, VillagerTradeData data) {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+
+        current.uuids.add(villagerUuid);
+        current.values.add(data);
+        recordCount++;
+        if (current.uuids.size() >= BATCH_SIZE) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        published.add(current);
+        current = new Batch();
+    }
+
+    /**
+     * 公開済みのバッチを1つ取り出す（クライアントスレッドから呼ぶ）
+     * @return バッチがない場合null
+     */
+    Batch poll() {
+        return published.poll();
+    }
+
+    /**
+     * 読み込みを中止（以降のバッチは公開されない）
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * 読み込みの完了を待つ
+     * @param timeoutMs 待機する最大時間
+     * @return 時間内に完了した場合true
+     */
+    public boolean await(long timeoutMs) {
+        try {
+            return finished.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -1,42 +1,123 @@
 package acaciatide.whohasmending.data;
 
 import acaciatide.whohasmending.Whohasmending;
+import acaciatide.whohasmending.capture.MerchantInteractionTracker;
+import acaciatide.whohasmending.config.WhohasmendingConfig;
+import acaciatide.whohasmending.jfr.BackupEvent;
+import acaciatide.whohasmending.jfr.WorldEvent;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+import acaciatide.whohasmending.render.NearbyDealsHud;
+import acaciatide.whohasmending.render.VillagerLabelCache;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.ServerData;
 import net.minecraft.client.server.IntegratedServer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
 
 /**
  * 村人取引データのメモリキャッシュを管理
+ * 参照側（描画など）は公開済みのスナップショットをロックなしで読む
+ * 更新側はロックを取ってスナップショットのコピーを変更し、参照を差し替えて公開する（コピーオンライト）
+ * コピーは変更したセグメントだけを複製する（VillagerDataTable）
+ * ディスクへの書き込みを待つ処理は、描画やティックが取るロックを放してから行う
  */
 public class VillagerDataManager {
-    private static VillagerDataManager instance;
     
-    private Map<UUID, VillagerTradeData> villagerData;
-    private String currentWorldId;
-    private boolean displayEnabled;
+    // 公開済みのスナップショット（公開後は変更しない）
+    private volatile Map<UUID, VillagerTradeData> villagerData;
+    private volatile String currentWorldId;
+    private volatile boolean displayEnabled;
     private boolean isDirty;
+    // 同じチャンク内での位置の変化だけが未保存（ジャーナルには追記しておらず、次のスナップショットで保存する）
+    private boolean positionsDirty;
+    private volatile VillagerDataWriter writer;
+    private VillagerStoreFactory storeFactory = VillagerStoreFactory.fromConfig();
+    // 現在のワールドの保存先
+    private VillagerStore store;
+    // エンチャント -> 村人、チャンク -> 村人の検索用（ロック内でのみ更新・参照する）
+    private final EnchantmentIndex enchantmentIndex = new EnchantmentIndex();
+    private final VillagerSpatialIndex spatialIndex = new VillagerSpatialIndex();
+    
+    // バックグラウンド読み込み中の状態
+    private static final int MAX_LOAD_BATCHES_PER_TICK = 16;
+    private volatile VillagerDataLoader loader;
+    private final Set<UUID> changedWhileLoading = new HashSet<>();
+
+    // 領域ごとに分割するストアで、クライアントが読み込んでいるチャンクの数（領域ごと）
+    private final Map<VillagerRegion, Integer> loadedChunks = new HashMap<>();
+    private String loadedChunksDimension;
+    // 読み込みを依頼した領域と、データを反映済みの領域
+    private final Set<VillagerRegion> requestedRegions = new HashSet<>();
+    private final Set<VillagerRegion> residentRegions = new HashSet<>();
+    // ライタースレッドで読み込んだ領域（ティックごとに反映する）
+    private final ConcurrentLinkedQueue<RegionLoad> loadedRegions = new ConcurrentLinkedQueue<>();
+    // ワールドの移動や全データの置き換えで増やし、それ以前に依頼した読み込みの結果を捨てる
+    private int regionEpoch;
+
+    /**
+     * ライタースレッドで読み込んだ1領域分のデータ
+     */
+    private static class RegionLoad {
+        final int epoch;
+        final VillagerRegion region;
+        final Map<UUID, VillagerTradeData> data;
+
+        RegionLoad(int epoch, VillagerRegion region, Map<UUID, VillagerTradeData> data) {
+            this.epoch = epoch;
+            this.region = region;
+            this.data = data;
+        }
+    }
 
     private VillagerDataManager() {
-        this.villagerData = new HashMap<>();
+        this.villagerData = new VillagerDataTable();
         this.displayEnabled = true;
         this.isDirty = false;
     }
 
+    private static class Holder {
+        private static final VillagerDataManager INSTANCE = new VillagerDataManager();
+    }
+
     public static VillagerDataManager getInstance() {
-        if (instance == null) {
-            instance = new VillagerDataManager();
-        }
-        return instance;
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * ワールドごとの保存先の選び方を差し替える（次のワールド参加から有効）
+     */
+    public synchronized void setStoreFactory(VillagerStoreFactory storeFactory) {
+        this.storeFactory = storeFactory;
     }
 
     /**
      * ワールドまたはサーバーに参加した時に呼び出す
      */
     public void onWorldJoin() {
+        // 前のワールドの読み込みが残っていれば、ロックを持たずに終わるのを待つ
+        awaitLoading();
+        joinWorld();
+    }
+
+    private synchronized void joinWorld() {
+        WorldEvent event = new WorldEvent();
+        event.begin();
         String worldId = getWorldIdentifier();
         if (worldId == null) {
             Whohasmending.LOGGER.warn("Could not determine world identifier");
@@ -44,133 +125,887 @@ public class VillagerDataManager {
         }
 
         // 前のワールドのデータが未保存なら保存
+        completeLoading();
         if (currentWorldId != null && isDirty) {
             saveCurrentWorld();
         }
 
         this.currentWorldId = worldId;
-        this.villagerData = VillagerDataStorage.load(worldId);
+        this.store = storeFactory.open(worldId);
+        publish(new VillagerDataTable());
+        clearIndexes();
         this.isDirty = false;
+        this.positionsDirty = false;
+        VillagerLabelCache.getInstance().clear();
+        NearbyDealsHud.getInstance().clear();
+        
+        // 読み込みはライタースレッドで行い、読み込んだ分からティックごとに反映する
+        // 保存と同じスレッドなので、書き込み途中のファイルを読むことはない
+        cancelLoading();
+        loader = new VillagerDataLoader(store);
+        getWriter().execute(loader);
+        
+        // 参加より先に受け取ったチャンクの領域を読み込む（領域ごとに分割するストアのみ）
+        clearRegions();
+        for (VillagerRegion region : loadedChunks.keySet()) {
+            requestRegion(region);
+        }
+        
+        Whohasmending.LOGGER.info("Joined world: {}, loading villager records in background", worldId);
         
-        Whohasmending.LOGGER.info("Joined world: {} with {} villager records", worldId, villagerData.size());
+        event.end();
+        if (event.shouldCommit()) {
+            event.action = WorldEvent.JOIN;
+            event.worldId = worldId;
+            event.commit();
+        }
+    }
+
+    /**
+     * クライアントティックごとに呼び出す
+     */
+    public synchronized void tick() {
+        if (loader != null) {
+            applyLoadedBatches(MAX_LOAD_BATCHES_PER_TICK);
+        } else if (!loadedRegions.isEmpty()) {
+            // 全体の読み込みが終わるまでは、領域のデータを反映しない（全体の読み込みで置き換えられるため）
+            applyLoadedRegions();
+        }
+    }
+
+    /**
+     * クライアントがチャンクを受け取った時に呼び出す
+     * 領域ごとに分割するストアでは、その領域の最初のチャンクでデータの読み込みを依頼する
+     */
+    public synchronized void onChunkLoaded(Level level, ChunkPos pos) {
+        String dimension = level.dimension().identifier().toString();
+        if (!dimension.equals(loadedChunksDimension)) {
+            // ディメンションを移動した（前のディメンションのチャンクの解放は通知されないことがある）
+            evictRegions(new HashSet<>(residentRegions));
+            clearRegions();
+            loadedChunks.clear();
+            loadedChunksDimension = dimension;
+        }
+
+        VillagerRegion region = VillagerRegion.ofChunk(dimension, pos.getMinBlockX() >> 4, pos.getMinBlockZ() >> 4);
+        if (loadedChunks.merge(region, 1, Integer::sum) == 1) {
+            requestRegion(region);
+        }
+    }
+
+    /**
+     * クライアントがチャンクを解放した時に呼び出す
+     * 領域の最後のチャンクが解放されたら、その領域のデータをメモリから外す
+     */
+    public synchronized void onChunkUnloaded(Level level, ChunkPos pos) {
+        VillagerRegion region = VillagerRegion.ofChunk(level.dimension().identifier().toString(),
+                pos.getMinBlockX() >> 4, pos.getMinBlockZ() >> 4);
+        Integer count = loadedChunks.get(region);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            loadedChunks.put(region, count - 1);
+            return;
+        }
+
+        loadedChunks.remove(region);
+        requestedRegions.remove(region);
+        if (residentRegions.remove(region)) {
+            evictRegions(Set.of(region));
+        }
+    }
+
+    /**
+     * 領域のデータの読み込みをライタースレッドに依頼する（領域ごとに分割するストアのみ）
+     */
+    private void requestRegion(VillagerRegion region) {
+        if (store == null || !store.isPartial()
+                || residentRegions.contains(region) || !requestedRegions.add(region)) {
+            return;
+        }
+        VillagerStore regionStore = store;
+        int epoch = regionEpoch;
+        getWriter().execute(() -> loadedRegions.add(new RegionLoad(epoch, region, regionStore.loadRegion(region))));
+    }
+
+    /**
+     * 読み込んだ領域のデータを反映（まとめて1回だけ公開する）
+     */
+    private void applyLoadedRegions() {
+        Map<UUID, VillagerTradeData> next = null;
+        RegionLoad load;
+        while ((load = loadedRegions.poll()) != null) {
+            // ワールドを移動したか、反映する前にチャンクが解放された
+            if (load.epoch != regionEpoch || !requestedRegions.remove(load.region)) {
+                continue;
+            }
+            
+            if (next == null) {
+                next = copyOf(villagerData);
+            }
+            for (Map.Entry<UUID, VillagerTradeData> entry : load.data.entrySet()) {
+                // 読み込み中にキャプチャされたレコードや、他の領域から移ってきた村人の方が新しい
+                if (next.containsKey(entry.getKey())) {
+                    continue;
+                }
+                next.put(entry.getKey(), entry.getValue());
+                indexVillager(entry.getKey(), entry.getValue());
+            }
+            residentRegions.add(load.region);
+            
+            // 以降の保存でこの領域を書き直す対象にする
+            VillagerStore regionStore = store;
+            VillagerRegion region = load.region;
+            Map<UUID, VillagerTradeData> data = load.data;
+            getWriter().execute(() -> regionStore.onRegionResident(region, data));
+        }
+        
+        if (next != null) {
+            publish(next);
+            // 1件ずつ破棄するとラベルのテーブルを件数分走査するため、まとめて作り直す
+            VillagerLabelCache.getInstance().clear();
+            NearbyDealsHud.getInstance().clear();
+        }
+    }
+
+    /**
+     * 領域のデータをメモリから外す
+     * 外す前の内容は、ライターに残っている保存が先に書き込む
+     * チャンク内の移動でメモリ上だけに反映した位置は、外す前に保存を依頼する（外した後は保存されないため）
+     */
+    private void evictRegions(Set<VillagerRegion> regions) {
+        if (regions.isEmpty() || store == null) {
+            return;
+        }
+        
+        Map<UUID, VillagerTradeData> next = null;
+        for (Map.Entry<UUID, VillagerTradeData> entry : villagerData.entrySet()) {
+            if (!regions.contains(VillagerRegion.of(entry.getValue()))) {
+                continue;
+            }
+            if (next == null) {
+                next = copyOf(villagerData);
+            }
+            next.remove(entry.getKey());
+            unindexVillager(entry.getKey());
+        }
+        if (next != null) {
+            if (positionsDirty) {
+                // 分割保存では内容が変わった領域だけが書き直される
+                saveCurrentWorld();
+            }
+            publish(next);
+            VillagerLabelCache.getInstance().clear();
+            NearbyDealsHud.getInstance().clear();
+        }
+        
+        VillagerStore regionStore = store;
+        for (VillagerRegion region : regions) {
+            getWriter().execute(() -> regionStore.onRegionEvicted(region));
+        }
+    }
+
+    /**
+     * 依頼中・反映済みの領域を忘れ、それまでに依頼した読み込みの結果を捨てる
+     */
+    private void clearRegions() {
+        regionEpoch++;
+        requestedRegions.clear();
+        residentRegions.clear();
+        loadedRegions.clear();
+    }
+
+    /**
+     * 依頼中の領域の読み込みをやり直す（全データを置き換えた後に、置き換える前の内容を反映しないため）
+     */
+    private void reloadRequestedRegions() {
+        regionEpoch++;
+        loadedRegions.clear();
+        Set<VillagerRegion> pending = new HashSet<>(requestedRegions);
+        requestedRegions.clear();
+        for (VillagerRegion region : pending) {
+            requestRegion(region);
+        }
+    }
+
+    /**
+     * 反映済みの領域（と位置の分からない村人）のデータだけを残す
+     */
+    private Map<UUID, VillagerTradeData> retainResident(Map<UUID, VillagerTradeData> data) {
+        if (!store.isPartial()) {
+            return data;
+        }
+        Map<UUID, VillagerTradeData> result = new VillagerDataTable();
+        for (Map.Entry<UUID, VillagerTradeData> entry : data.entrySet()) {
+            VillagerRegion region = VillagerRegion.of(entry.getValue());
+            if (region.equals(VillagerRegion.UNPLACED) || residentRegions.contains(region)) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 読み込み済みのバッチを反映
+     * @param maxBatches 1回で反映する最大バッチ数
+     */
+    private void applyLoadedBatches(int maxBatches) {
+        // 反映したバッチはまとめて1回だけ公開する
+        Map<UUID, VillagerTradeData> next = null;
+        boolean finished = false;
+        
+        for (int i = 0; i < maxBatches && !finished; i++) {
+            VillagerDataLoader.Batch batch = loader.poll();
+            if (batch == null) {
+                break;
+            }
+            
+            if (batch.base != null) {
+                // 読み込み中に変更されたレコードを新しいデータの上に載せ直す
+                Map<UUID, VillagerTradeData> previous = next != null ? next : villagerData;
+                next = batch.base;
+                invalidateIndexes();
+                for (UUID uuid : changedWhileLoading) {
+                    VillagerTradeData data = previous.get(uuid);
+                    if (data != null) {
+                        next.put(uuid, data);
+                    } else {
+                        next.remove(uuid);
+                    }
+                }
+            } else if (next == null) {
+                next = copyOf(villagerData);
+            }
+            
+            for (int j = 0; j < batch.uuids.size(); j++) {
+                UUID uuid = batch.uuids.get(j);
+                // 読み込み中にキャプチャされたレコードの方が新しい
+                if (changedWhileLoading.contains(uuid)) {
+                    continue;
+                }
+                VillagerTradeData data = batch.values.get(j);
+                if (data != null) {
+                    next.put(uuid, data);
+                    indexVillager(uuid, data);
+                } else {
+                    next.remove(uuid);
+                    unindexVillager(uuid);
+                }
+            }
+            
+            finished = batch.last;
+        }
+        
+        if (next != null) {
+            publish(next);
+            // 「データなし」としてキャッシュした村人にもデータが入った可能性がある
+            VillagerLabelCache.getInstance().clear();
+            NearbyDealsHud.getInstance().clear();
+        }
+        if (finished) {
+            finishLoading();
+        }
+    }
+
+    /**
+     * 読み込み完了時の処理
+     */
+    private void finishLoading() {
+        loader = null;
+        changedWhileLoading.clear();
+        Whohasmending.LOGGER.info("Loaded world: {} with {} villager records", currentWorldId, villagerData.size());
+        
+        // 読み込み中に保留した保存を行う
+        if (isDirty) {
+            saveCurrentWorld();
+        }
+    }
+
+    /**
+     * 読み込みを中止
+     */
+    private void cancelLoading() {
+        if (loader != null) {
+            loader.cancel();
+            loader = null;
+        }
+        changedWhileLoading.clear();
+    }
+
+    /**
+     * 読み込み中なら、終わるまで待つ（最大で設定した時間まで）
+     * ロックを持たずに呼ぶこと（待っている間もティックやコマンドを止めないため）
+     * 読み込んだ分の反映はcompleteLoadingで行う
+     */
+    private void awaitLoading() {
+        VillagerDataLoader pending = loader;
+        if (pending != null) {
+            pending.await(WhohasmendingConfig.getInstance().getShutdownFlushTimeoutMs());
+        }
+    }
+
+    /**
+     * 読み込みが終わっていれば、残りを全て反映する（待たない）
+     * 終わっていなければ、読み込み中の変更をジャーナルに残して中止する
+     * @return 全データが揃っている場合true
+     */
+    private boolean completeLoading() {
+        if (loader == null) {
+            return true;
+        }
+        
+        if (loader.await(0)) {
+            applyLoadedBatches(Integer.MAX_VALUE);
+            return true;
+        }
+        
+        Whohasmending.LOGGER.warn("Villager data for world {} is still loading, keeping {} changes in the journal",
+                currentWorldId, changedWhileLoading.size());
+        for (UUID uuid : changedWhileLoading) {
+            VillagerTradeData data = villagerData.get(uuid);
+            getWriter().append(store, data != null
+                    ? VillagerDataJournal.put(uuid, data)
+                    : VillagerDataJournal.remove(uuid));
+        }
+        isDirty = false;
+        cancelLoading();
+        return false;
+    }
+
+    /**
+     * バックグラウンドで読み込み中かどうか
+     */
+    public boolean isLoading() {
+        return loader != null;
     }
 
     /**
      * ワールドまたはサーバーから離脱した時に呼び出す
      */
     public void onWorldLeave() {
-        if (currentWorldId != null && !villagerData.isEmpty()) {
-            // ワールド離脱時にバックアップを作成
-            VillagerDataStorage.createManualBackup(currentWorldId);
+        WorldEvent event = new WorldEvent();
+        event.begin();
+        String leftWorldId;
+        int leftRecords;
+        VillagerStore leftStore;
+        Map<UUID, VillagerTradeData> backupSnapshot = null;
+        // 読み込み途中のデータで上書き保存しないよう、読み込みが終わるのを待つ（ロックは持たない）
+        awaitLoading();
+        synchronized (this) {
+            leftWorldId = currentWorldId;
+            leftRecords = villagerData.size();
+            leftStore = store;
+            
+            // 待っても終わらなかった場合は、読み込み中の変更だけをジャーナルに残す
+            boolean loaded = completeLoading();
+            
+            if (currentWorldId != null && isDirty) {
+                saveCurrentWorld();
+            }
+            if (currentWorldId != null && loaded && !villagerData.isEmpty()) {
+                backupSnapshot = villagerData;
+            }
+            leaveWorld();
         }
         
-        if (currentWorldId != null && isDirty) {
-            saveCurrentWorld();
+        // バックグラウンドの保存が終わるまで待つ（最大で設定した時間まで、ロックは持たない）
+        flushPendingWrites();
+        
+        if (backupSnapshot != null) {
+            // ワールド離脱時にバックアップを作成（ライタースレッドで行い、離脱は待たせない）
+            synchronized (this) {
+                backupInBackground(leftStore, backupSnapshot);
+            }
         }
         
-        this.villagerData.clear();
+        Whohasmending.LOGGER.info("Left world, data cleared");
+        
+        event.end();
+        if (event.shouldCommit()) {
+            event.action = WorldEvent.LEAVE;
+            event.worldId = leftWorldId;
+            event.records = leftRecords;
+            event.commit();
+        }
+    }
+
+    /**
+     * 離脱したワールドの状態を破棄
+     */
+    private void leaveWorld() {
+        // メモリマップを手放すため、クリアではなく新しいMapに置き換える
+        publish(new VillagerDataTable());
+        clearIndexes();
         this.currentWorldId = null;
+        this.store = null;
         this.isDirty = false;
+        this.positionsDirty = false;
+        clearRegions();
+        loadedChunks.clear();
+        loadedChunksDimension = null;
+        VillagerLabelCache.getInstance().clear();
+        NearbyDealsHud.getInstance().clear();
+        // エンティティIDとコンテナIDはワールドごとに振り直される
+        MerchantInteractionTracker.getInstance().clear();
+    }
+
+    /**
+     * クライアント終了時に呼び出す
+     */
+    public void onClientStopping() {
+        onWorldLeave();
         
-        Whohasmending.LOGGER.info("Left world, data cleared");
+        VillagerDataWriter stopping;
+        synchronized (this) {
+            stopping = writer;
+            writer = null;
+        }
+        if (stopping != null) {
+            stopping.shutdown(WhohasmendingConfig.getInstance().getShutdownFlushTimeoutMs());
+        }
     }
 
     /**
-     * 現在のワールドのデータを保存
+     * 現在のワールドのデータを保存（書き込みはライタースレッドに渡し、完了は待たない）
      */
-    public void saveCurrentWorld() {
-        Whohasmending.LOGGER.info("saveCurrentWorld called: currentWorldId={}, dataSize={}", currentWorldId, villagerData.size());
+    public synchronized void saveCurrentWorld() {
+        Whohasmending.LOGGER.debug("saveCurrentWorld called: currentWorldId={}, dataSize={}", currentWorldId, villagerData.size());
         
         if (currentWorldId == null) {
             Whohasmending.LOGGER.warn("Cannot save: currentWorldId is null");
             return;
         }
         
+        // 読み込み途中のデータで上書きしないよう、読み込み完了まで保留する
+        if (isLoading()) {
+            isDirty = true;
+            return;
+        }
+        
+        // 公開済みのスナップショットは変更されないので、コピーせずにそのまま渡せる
         if (!villagerData.isEmpty()) {
-            VillagerDataStorage.save(currentWorldId, villagerData);
+            writeSnapshot(villagerData);
             isDirty = false;
+            positionsDirty = false;
         } else {
-            Whohasmending.LOGGER.info("Skipping save: no villager data to save");
+            Whohasmending.LOGGER.debug("Skipping save: no villager data to save");
         }
     }
 
     /**
-     * 村人データを取得
+     * 新しいスナップショットを公開（公開後は変更しないこと）
+     */
+    void publish(Map<UUID, VillagerTradeData> snapshot) {
+        villagerData = snapshot;
+    }
+
+    /**
+     * 更新用にスナップショットをコピー
+     * セグメントや差分を共有し、書き込んだ部分だけを複製するため、件数によらず安い
+     */
+    private static Map<UUID, VillagerTradeData> copyOf(Map<UUID, VillagerTradeData> data) {
+        if (data instanceof MappedVillagerMap mapped) {
+            return mapped.copy();
+        }
+        return new VillagerDataTable(data);
+    }
+
+    /**
+     * スナップショットを保存（write-behind有効時はバックグラウンドスレッドに渡す）
+     * @param snapshot 保存するデータ（公開済みで変更されないもの）
+     */
+    private void writeSnapshot(Map<UUID, VillagerTradeData> snapshot) {
+        getWriter().submit(store, snapshot);
+    }
+
+    /**
+     * 1件の変更を保存（ジャーナル形式では追記のみ、JSON形式では全体を保存）
+     * @param record ジャーナルに追記するレコード
+     */
+    private void persistChange(VillagerDataJournal.Record record) {
+        // 設定ではなく、このワールドで開いているストアの保存形式に従う
+        if (store == null || !store.isJournaled()) {
+            saveCurrentWorld();
+            return;
+        }
+        
+        if (currentWorldId == null) {
+            Whohasmending.LOGGER.warn("Cannot save: currentWorldId is null");
+            return;
+        }
+        
+        getWriter().append(store, record);
+        // ジャーナルに追記していない位置の変化は、離脱時などのスナップショットまで残す
+        isDirty = positionsDirty;
+    }
+
+    private VillagerDataWriter getWriter() {
+        if (writer == null) {
+            WhohasmendingConfig config = WhohasmendingConfig.getInstance();
+            writer = new VillagerDataWriter(
+                    config.getSaveDebounceMs(),
+                    config.getSaveIntervalMs(),
+                    config.getJournalGroupCommitMs());
+        }
+        return writer;
+    }
+
+    /**
+     * バックグラウンドに残っている未保存データを書き出す
+     * 書き込みが終わるまで待つため、ロックを持ったまま呼ばない
+     */
+    private void flushPendingWrites() {
+        VillagerDataWriter current = writer;
+        if (current != null) {
+            current.flush(WhohasmendingConfig.getInstance().getShutdownFlushTimeoutMs());
+        }
+    }
+
+    /**
+     * write-behindが無効な場合、変更を記録した呼び出し元で書き込みが終わるまで待つ（ロックを放してから呼ぶ）
+     */
+    private void awaitWriteThrough() {
+        if (!WhohasmendingConfig.getInstance().isWriteBehind()) {
+            flushPendingWrites();
+        }
+    }
+
+    /**
+     * 村人データを取得（ロックなし）
      */
     public VillagerTradeData getVillagerData(UUID villagerUuid) {
         return villagerData.get(villagerUuid);
     }
 
+    /**
+     * 指定したワールドにいる場合だけ村人データを登録または更新（キャプチャスレッドから呼ぶ）
+     * @param worldId キャプチャした時のワールド
+     * @return ワールドを移っていて登録しなかった場合false
+     */
+    public boolean putVillagerData(String worldId, UUID villagerUuid, VillagerTradeData data) {
+        synchronized (this) {
+            if (currentWorldId == null || !currentWorldId.equals(worldId)) {
+                return false;
+            }
+            put(villagerUuid, data);
+        }
+        awaitWriteThrough();
+        return true;
+    }
+
     /**
      * 村人データを登録または更新
      */
     public void putVillagerData(UUID villagerUuid, VillagerTradeData data) {
-        villagerData.put(villagerUuid, data);
+        put(villagerUuid, data);
+        awaitWriteThrough();
+    }
+
+    private synchronized void put(UUID villagerUuid, VillagerTradeData data) {
+        VillagerTradeData previous = villagerData.get(villagerUuid);
+        if (previous != null) {
+            // 同じ村人を開き直しただけで取引内容が変わっていなければ何もしない（保存もしない）
+            // フィンガープリントは先に安く比べるためのもので、一致した時は値を比べて確かめる
+            if (previous.getFingerprint() == data.getFingerprint() && previous.hasSameTrades(data)
+                    && (data.getLastSeen() == null || data.getLastSeen().equals(previous.getLastSeen()))) {
+                return;
+            }
+            // 位置の分からないキャプチャでは、前回記録した位置を引き継ぐ
+            if (data.getLastSeen() == null && previous.getLastSeen() != null) {
+                data = data.withLastSeen(previous.getLastSeen());
+            }
+        }
+        // 次のキャプチャと比べる時は、登録したレコードが持っている値を使う
+        data.getFingerprint();
+
+        Map<UUID, VillagerTradeData> next = copyOf(villagerData);
+        next.put(villagerUuid, data);
+        publish(next);
+        indexVillager(villagerUuid, data);
+        VillagerLabelCache.getInstance().invalidate(villagerUuid);
+        NearbyDealsHud.getInstance().invalidate(villagerUuid);
         isDirty = true;
+        if (isLoading()) {
+            changedWhileLoading.add(villagerUuid);
+        }
         
-        // 毎回の更新で保存（MVP版ではシンプルに即時保存）
-        saveCurrentWorld();
+        // 保存はwrite-behindでまとめて行う
+        persistChange(VillagerDataJournal.put(villagerUuid, data));
+    }
+
+    /**
+     * 村人の位置をまとめて記録（移動した村人ごとに1件ずつではなく、1回の公開で反映する）
+     * 同じチャンク内での移動はメモリ上だけで反映し、離脱時などの保存でまとめて書き込む
+     * チャンクをまたいだ村人がいた時だけ、すぐに保存する（分割保存では村人が属する領域が変わるため）
+     * 読み込み中は反映しない（次の記録で改めて渡される）
+     * @param positions 村人UUID -> 最後に見かけた位置
+     */
+    public void updatePositions(Map<UUID, VillagerPosition> positions) {
+        if (applyPositions(positions)) {
+            awaitWriteThrough();
+        }
+    }
+
+    /**
+     * @return 保存を依頼した場合true
+     */
+    private synchronized boolean applyPositions(Map<UUID, VillagerPosition> positions) {
+        if (positions.isEmpty() || isLoading() || currentWorldId == null) {
+            return false;
+        }
+        
+        Map<UUID, VillagerTradeData> next = null;
+        List<VillagerDataJournal.Record> records = new ArrayList<>(positions.size());
+        for (Map.Entry<UUID, VillagerPosition> entry : positions.entrySet()) {
+            VillagerTradeData data = villagerData.get(entry.getKey());
+            if (data == null || entry.getValue().equals(data.getLastSeen())) {
+                continue;
+            }
+            if (next == null) {
+                next = copyOf(villagerData);
+            }
+            VillagerTradeData moved = data.withLastSeen(entry.getValue());
+            next.put(entry.getKey(), moved);
+            spatialIndex.put(entry.getKey(), entry.getValue());
+            NearbyDealsHud.getInstance().invalidate(entry.getKey());
+            if (crossedChunk(data.getLastSeen(), entry.getValue())) {
+                records.add(VillagerDataJournal.put(entry.getKey(), moved));
+            } else {
+                positionsDirty = true;
+            }
+        }
+        if (next == null) {
+            return false;
+        }
+        
+        publish(next);
+        isDirty = true;
+        if (records.isEmpty()) {
+            return false;
+        }
+        if (store.isJournaled()) {
+            for (VillagerDataJournal.Record record : records) {
+                persistChange(record);
+            }
+        } else {
+            saveCurrentWorld();
+        }
+        return true;
+    }
+
+    /**
+     * 位置の記録がなかったか、別のディメンション・チャンクに移ったか
+     */
+    private static boolean crossedChunk(VillagerPosition previous, VillagerPosition current) {
+        return previous == null || !Objects.equals(previous.getDimension(), current.getDimension())
+                || previous.getChunkX() != current.getChunkX() || previous.getChunkZ() != current.getChunkZ();
+    }
+
+    /**
+     * 指定した位置から近い順に村人を検索（位置が分かっている村人のみ）
+     * @param origin 検索の中心
+     * @param maxDistance 最大距離（ブロック）
+     * @param limit 返す最大件数
+     * @param filter 対象にする村人の条件
+     */
+    public synchronized List<UUID> findNearestVillagers(VillagerPosition origin, int maxDistance, int limit,
+                                                        Predicate<VillagerTradeData> filter) {
+        Map<UUID, VillagerTradeData> snapshot = villagerData;
+        return spatialIndex.nearest(origin, maxDistance, limit, uuid -> {
+            VillagerTradeData data = snapshot.get(uuid);
+            return data != null && filter.test(data);
+        }, snapshot);
+    }
+
+    /**
+     * 指定したチャンク範囲（両端を含む）で最後に見かけた村人を列挙
+     * ロックを持ったまま呼ぶので、actionでは重い処理をしない
+     */
+    public synchronized void forEachVillagerInChunks(String dimension, int minChunkX, int minChunkZ,
+                                                     int maxChunkX, int maxChunkZ,
+                                                     BiConsumer<UUID, VillagerPosition> action) {
+        spatialIndex.forEachInChunks(dimension, minChunkX, minChunkZ, maxChunkX, maxChunkZ, action, villagerData);
+    }
+
+    /**
+     * 村人を最後に見かけた位置
+     * @return 分からない場合null
+     */
+    public synchronized VillagerPosition getLastSeenPosition(UUID villagerUuid) {
+        return spatialIndex.getPosition(villagerUuid, villagerData);
+    }
+
+    /**
+     * 検索用インデックスに登録
+     */
+    private void indexVillager(UUID villagerUuid, VillagerTradeData data) {
+        enchantmentIndex.put(villagerUuid, data);
+        spatialIndex.put(villagerUuid, data.getLastSeen());
+    }
+
+    /**
+     * 検索用インデックスから外す
+     */
+    private void unindexVillager(UUID villagerUuid) {
+        enchantmentIndex.remove(villagerUuid);
+        spatialIndex.remove(villagerUuid);
+    }
+
+    private void clearIndexes() {
+        enchantmentIndex.clear();
+        spatialIndex.clear();
+    }
+
+    /**
+     * データがまとめて置き換わった時に呼ぶ（作り直しは次の検索まで遅らせる）
+     */
+    private void invalidateIndexes() {
+        enchantmentIndex.invalidate();
+        spatialIndex.invalidate();
     }
 
     /**
      * 村人データを削除
      */
     public void removeVillagerData(UUID villagerUuid) {
-        if (villagerData.remove(villagerUuid) != null) {
+        synchronized (this) {
+            if (!villagerData.containsKey(villagerUuid)) {
+                return;
+            }
+            Map<UUID, VillagerTradeData> next = copyOf(villagerData);
+            next.remove(villagerUuid);
+            publish(next);
+            unindexVillager(villagerUuid);
+            VillagerLabelCache.getInstance().invalidate(villagerUuid);
+            NearbyDealsHud.getInstance().invalidate(villagerUuid);
             isDirty = true;
-            saveCurrentWorld();
+            if (isLoading()) {
+                changedWhileLoading.add(villagerUuid);
+            }
+            persistChange(VillagerDataJournal.remove(villagerUuid));
         }
+        awaitWriteThrough();
     }
 
     /**
      * 現在のワールドの全データを削除
      */
-    public void clearCurrentWorldData() {
-        if (villagerData.isEmpty()) {
+    public synchronized void clearCurrentWorldData() {
+        // 全て消すので、読み込み中のデータも不要
+        boolean wasLoading = isLoading();
+        cancelLoading();
+        
+        if (villagerData.isEmpty() && !wasLoading) {
             return;
         }
         
-        villagerData.clear();
+        publish(new VillagerDataTable());
+        clearIndexes();
+        VillagerLabelCache.getInstance().clear();
+        NearbyDealsHud.getInstance().clear();
         isDirty = false; // クリア時はここでフラグを落とす
+        positionsDirty = false;
         
-        // saveCurrentWorldはisEmptyの場合スキップするので、直接saveを呼んで空データを書き込む
+        // saveCurrentWorldはisEmptyの場合スキップするので、直接空データを書き込む
+        // 領域ごとに分割するストアでは、読み込んでいない領域も含めて削除する
         if (currentWorldId != null) {
-            VillagerDataStorage.save(currentWorldId, new HashMap<>());
+            replaceStored(villagerData);
             Whohasmending.LOGGER.info("Cleared all villager data for current world: {}", currentWorldId);
         }
     }
 
     /**
-     * バックアップからデータを復元
-     * @return 復元に成功した場合true
+     * バックアップからデータを復元（呼び出し元は待たない）
+     * 積まれている保存・バックアップの作成が終わってからライタースレッドで読み込み、クライアントスレッドで反映する
+     * @param onComplete 復元した件数を受け取る（失敗した場合は0、クライアントスレッドで呼ばれる）
+     * @return 復元を開始した場合true（ワールドにいない場合false）
      */
-    public boolean restoreFromBackup() {
+    public synchronized boolean restoreFromBackup(IntConsumer onComplete) {
         if (currentWorldId == null) {
             Whohasmending.LOGGER.warn("Cannot restore: not in a world");
             return false;
         }
         
-        Map<UUID, VillagerTradeData> restored = VillagerDataStorage.restoreFromBackup(currentWorldId);
-        
-        if (!restored.isEmpty()) {
-            this.villagerData = restored;
-            this.isDirty = true;
-            saveCurrentWorld();
-            Whohasmending.LOGGER.info("Restored {} villager records from backup", restored.size());
-            return true;
+        VillagerStore restoreStore = store;
+        callOnWriter(() -> {
+            BackupEvent event = new BackupEvent();
+            event.begin();
+            Map<UUID, VillagerTradeData> restored = null;
+            try {
+                restored = restoreStore.restore();
+                return restored;
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.operation = BackupEvent.RESTORE;
+                    event.worldId = restoreStore.getWorldId();
+                    event.records = restored != null ? restored.size() : 0;
+                    event.commit();
+                }
+            }
+        }, restored -> onComplete.accept(applyRestored(restoreStore, restored)));
+        return true;
+    }
+
+    /**
+     * ライタースレッドで読み込んだバックアップを反映（クライアントスレッドから呼ぶ）
+     * @return 反映した件数（反映しなかった場合0）
+     */
+    private synchronized int applyRestored(VillagerStore restoreStore, Map<UUID, VillagerTradeData> restored) {
+        // 読み込んでいる間にワールドを移った
+        if (store != restoreStore) {
+            Whohasmending.LOGGER.warn("Discarded restored backup for a world that is no longer open");
+            return 0;
+        }
+        if (restored == null || restored.isEmpty()) {
+            Whohasmending.LOGGER.warn("No backup data found to restore");
+            return 0;
         }
         
-        Whohasmending.LOGGER.warn("No backup data found to restore");
-        return false;
+        // バックアップで置き換えるので、読み込み中のデータは不要
+        cancelLoading();
+        // 全ての領域を書き直し、メモリには読み込んでいる領域の分だけを残す
+        replaceStored(restored);
+        publish(retainResident(restored));
+        invalidateIndexes();
+        VillagerLabelCache.getInstance().clear();
+        NearbyDealsHud.getInstance().clear();
+        this.isDirty = false;
+        this.positionsDirty = false;
+        Whohasmending.LOGGER.info("Restored {} villager records from backup", restored.size());
+        return restored.size();
+    }
+
+    /**
+     * 現在のワールドのバックアップ一覧（呼び出し元は待たない）
+     * 積まれているバックアップの作成が終わってから、ライタースレッドで読み込む
+     * @param onComplete 古い順の世代を受け取る（読み込めなかった場合は空、クライアントスレッドで呼ばれる）
+     * @return 読み込みを開始した場合true（ワールドにいない場合false）
+     */
+    public synchronized boolean listBackups(Consumer<List<VillagerBackupManifest.Generation>> onComplete) {
+        if (currentWorldId == null) {
+            return false;
+        }
+        callOnWriter(store::listBackups,
+                generations -> onComplete.accept(generations != null ? generations : List.of()));
+        return true;
     }
 
     /**
-     * 手動でバックアップを作成
+     * 手動でバックアップを作成（ライタースレッドで行い、完了は待たない）
+     * 読み込み中は全データが揃っていないため作成しない（読み込みの完了も待たない）
+     * @return バックアップの作成を開始した場合true
      */
-    public void createManualBackup() {
+    public synchronized boolean createManualBackup() {
         if (currentWorldId == null) {
             Whohasmending.LOGGER.warn("Cannot create backup: not in a world");
-            return;
+            return false;
+        }
+        
+        if (isLoading()) {
+            Whohasmending.LOGGER.warn("Cannot create backup: villager data is still loading");
+            return false;
         }
         
         // 現在のデータを保存してからバックアップ
@@ -178,7 +1013,61 @@ public class VillagerDataManager {
             saveCurrentWorld();
         }
         
-        VillagerDataStorage.createManualBackup(currentWorldId);
+        backupInBackground(store, villagerData);
+        return true;
+    }
+
+    /**
+     * 未保存データを書き出した後にライタースレッドでタスクを実行し、結果をクライアントスレッドで受け取る
+     * 呼び出し元は待たない（積まれている読み込みや保存の後ろに並ぶため、時間がかかることがある）
+     * @param onResult タスクの結果を受け取る（失敗した場合はnull）
+     */
+    private <T> void callOnWriter(Callable<T> task, Consumer<T> onResult) {
+        getWriter().execute(() -> {
+            T result = null;
+            try {
+                result = task.call();
+            } catch (Exception e) {
+                Whohasmending.LOGGER.error("Background task failed", e);
+            }
+            T value = result;
+            Minecraft.getInstance().execute(() -> onResult.accept(value));
+        });
+    }
+
+    /**
+     * 未保存データを書き出した後に、ライタースレッドで全データを置き換えて保存する
+     * @param data 保存するデータ（公開済みで変更されないもの）
+     */
+    private void replaceStored(Map<UUID, VillagerTradeData> data) {
+        VillagerStore replaceStore = store;
+        getWriter().execute(() -> replaceStore.replaceAll(data));
+        reloadRequestedRegions();
+    }
+
+    /**
+     * 未保存データを書き出した後に、ライタースレッドでバックアップを作成する
+     * @param backupStore バックアップ先のストア
+     * @param snapshot バックアップするデータ（公開済みで変更されないもの）
+     */
+    private void backupInBackground(VillagerStore backupStore, Map<UUID, VillagerTradeData> snapshot) {
+        getWriter().execute(() -> {
+            BackupEvent event = new BackupEvent();
+            event.begin();
+            long bytesBefore = WhohasmendingMetrics.BACKUP_BYTES_WRITTEN.get();
+            try {
+                backupStore.backup(snapshot);
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.operation = BackupEvent.CREATE;
+                    event.worldId = backupStore.getWorldId();
+                    event.records = snapshot.size();
+                    event.bytes = WhohasmendingMetrics.BACKUP_BYTES_WRITTEN.get() - bytesBefore;
+                    event.commit();
+                }
+            }
+        });
     }
 
     /**
@@ -186,15 +1075,20 @@ public class VillagerDataManager {
      * @return バリデーション結果
      */
     public ValidationResult validateData() {
-        if (villagerData.isEmpty()) {
+        Map<UUID, VillagerTradeData> snapshot = villagerData;
+        if (isLoading()) {
+            return ValidationResult.loading(snapshot.size());
+        }
+        
+        if (snapshot.isEmpty()) {
             return ValidationResult.empty();
         }
         
-        int totalRecords = villagerData.size();
+        int totalRecords = snapshot.size();
         int validRecords = 0;
         int invalidRecords = 0;
         
-        for (VillagerTradeData data : villagerData.values()) {
+        for (VillagerTradeData data : snapshot.values()) {
             if (data.isValid()) {
                 validRecords++;
             } else {
@@ -210,16 +1104,42 @@ public class VillagerDataManager {
     }
 
     /**
-     * 全村人データを取得（レンダリング用）
+     * 指定したエンチャントの本を売る村人を安い順に検索
+     * @param enchantment エンチャントのキー（レジストリIDから"minecraft:"を省いたもの、"mending"）
+     * @param maxCost エメラルドの上限（含む）
+     * @param limit 返す最大件数
+     */
+    public synchronized FindResult findVillagers(String enchantment, int maxCost, int limit) {
+        int total = enchantmentIndex.count(enchantment, maxCost, villagerData);
+        List<EnchantmentIndex.Offer> offers = enchantmentIndex.find(enchantment, maxCost, limit, villagerData);
+        Map<UUID, VillagerPosition> positions = new HashMap<>();
+        for (EnchantmentIndex.Offer offer : offers) {
+            VillagerPosition position = spatialIndex.getPosition(offer.getVillagerUuid(), villagerData);
+            if (position != null) {
+                positions.put(offer.getVillagerUuid(), position);
+            }
+        }
+        return new FindResult(enchantment, maxCost, total, offers, positions);
+    }
+
+    /**
+     * 取引が記録されているエンチャントのキー（コマンドの補完用）
+     */
+    public synchronized Set<String> getKnownEnchantments() {
+        return enchantmentIndex.getEnchantments(villagerData);
+    }
+
+    /**
+     * 全村人データを取得（レンダリング用、読み取り専用のスナップショット）
      */
     public Map<UUID, VillagerTradeData> getAllVillagerData() {
-        return villagerData;
+        return Collections.unmodifiableMap(villagerData);
     }
 
     /**
      * 表示の有効/無効を切り替え
      */
-    public void toggleDisplay() {
+    public synchronized void toggleDisplay() {
         this.displayEnabled = !this.displayEnabled;
         Whohasmending.LOGGER.info("Display toggled: {}", displayEnabled);
     }
@@ -265,6 +1185,25 @@ public class VillagerDataManager {
         return villagerData.size();
     }
 
+    /**
+     * メモリ上のデータが使うヒープのおおよそのバイト数（索引は含まない）
+     * 全レコードを辿るため、統計の表示時にだけ呼ぶ
+     */
+    public long estimateHeapBytes() {
+        Map<UUID, VillagerTradeData> snapshot = villagerData;
+        if (snapshot instanceof VillagerDataTable table) {
+            return table.estimateHeapBytes();
+        }
+        if (snapshot instanceof MappedVillagerMap mapped) {
+            return mapped.estimateHeapBytes();
+        }
+        long bytes = 0;
+        for (VillagerTradeData data : snapshot.values()) {
+            bytes += 48 + data.estimateHeapBytes();
+        }
+        return bytes;
+    }
+
     /**
      * 現在のワールドIDを取得
      */
@@ -1,118 +1,226 @@
 package acaciatide.whohasmending.data;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonParseException;
-
-import com.google.gson.reflect.TypeToken;
-import net.minecraft.client.Minecraft;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import acaciatide.whohasmending.Whohasmending;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+import acaciatide.whohasmending.config.WhohasmendingConfig.StorageEngine;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Stream;
 
 /**
- * 村人取引データのJSON読み書きを担当
+ * 村人取引データのファイル保存（JSON・ジャーナル・バイナリ）を担当
+ * 1ワールド/サーバーにつき1インスタンスで、保存先のディレクトリは外から指定する
  */
-public class VillagerDataStorage {
-    private static final Gson GSON = new GsonBuilder()
-            .setPrettyPrinting()
-            .create();
-    
-    private static Path getConfigDir() {
-        return Minecraft.getInstance().gameDirectory.toPath()
-                .resolve("config")
-                .resolve("whohasmending")
-                .resolve("data");
-    }
+public class VillagerDataStorage implements VillagerStore {
 
-    private static final int MAX_BACKUPS = 3;
+    private final String worldId;
+    private final StorageEngine engine;
+    private final long compactThresholdBytes;
+    private final Path filePath;
+    private final Path journalPath;
+    private final Path binaryPath;
+    private final VillagerBackupStore backups;
 
     /**
-     * 指定されたワールド/サーバーのデータを読み込む
+     * @param dataDirectory データファイルを置くディレクトリ
      * @param worldId ワールドまたはサーバーの識別子
-     * @return 村人データのMap (UUID -> VillagerTradeData)
+     * @param engine 保存形式
+     * @param compactThresholdBytes ジャーナルをスナップショットへ畳み込むサイズ（バイト）
      */
-    public static Map<UUID, VillagerTradeData> load(String worldId) {
-        Path filePath = getFilePath(worldId);
+    public VillagerDataStorage(Path dataDirectory, String worldId, StorageEngine engine, long compactThresholdBytes) {
+        this(dataDirectory, worldId, engine, compactThresholdBytes, VillagerBackupStore.DEFAULT_MAX_GENERATIONS);
+    }
+
+    /**
+     * @param dataDirectory データファイルを置くディレクトリ
+     * @param worldId ワールドまたはサーバーの識別子
+     * @param engine 保存形式
+     * @param compactThresholdBytes ジャーナルをスナップショットへ畳み込むサイズ（バイト）
+     * @param maxBackupGenerations 保持するバックアップの世代数
+     */
+    public VillagerDataStorage(Path dataDirectory, String worldId, StorageEngine engine, long compactThresholdBytes,
+                               int maxBackupGenerations) {
+        this.worldId = worldId;
+        this.engine = engine;
+        this.compactThresholdBytes = compactThresholdBytes;
         
+        // ファイル名に使えない文字を置換
+        String safeWorldId = worldId.replaceAll("[^a-zA-Z0-9._-]", "_");
+        this.filePath = dataDirectory.resolve(safeWorldId + ".json");
+        this.journalPath = dataDirectory.resolve(safeWorldId + ".journal");
+        this.binaryPath = dataDirectory.resolve(safeWorldId + ".whm");
+        this.backups = new VillagerBackupStore(dataDirectory.resolve("backups").resolve(safeWorldId), worldId,
+                maxBackupGenerations);
+    }
+
+    @Override
+    public String getWorldId() {
+        return worldId;
+    }
+
+    /**
+     * データを読み込む（設定された保存形式を使用）
+     * @return 村人データのMap (UUID -> VillagerTradeData)
+     */
+    @Override
+    public Map<UUID, VillagerTradeData> load() {
+        if (isBinaryEngine()) {
+            Map<UUID, VillagerTradeData> result = VillagerBinaryStorage.load(worldId, binaryPath, filePath, this::loadJson);
+            replayJournal(VillagerRecordSink.into(result));
+            return result;
+        }
+        return loadJson();
+    }
+
+    /**
+     * データを読み込み、シンクに渡す
+     * バイナリ形式はメモリマップするだけなので、まとめて置き換える
+     */
+    @Override
+    public void load(VillagerRecordSink sink) {
+        if (isBinaryEngine()) {
+            sink.replace(load());
+        } else {
+            loadJson(sink);
+        }
+    }
+
+    /**
+     * JSONファイルとジャーナルからデータを読み込む
+     * @return 村人データのMap (UUID -> VillagerTradeData)
+     */
+    public Map<UUID, VillagerTradeData> loadJson() {
+        Map<UUID, VillagerTradeData> result = new VillagerDataTable();
+        loadJson(VillagerRecordSink.into(result));
+        return result;
+    }
+
+    /**
+     * JSONファイルとジャーナルを逐次読み込み、1件ずつシンクに渡す
+     * ファイル全体の文字列や中間のMapは作らない
+     * @param sink 読み込んだレコードの受け取り先
+     */
+    public void loadJson(VillagerRecordSink sink) {
+        loadSnapshot(sink);
+        replayJournal(sink);
+    }
+
+    /**
+     * スナップショット以降の変更をジャーナルから再生
+     */
+    private void replayJournal(VillagerRecordSink sink) {
+        int replayed = VillagerDataJournal.replay(journalPath, sink);
+        if (replayed > 0) {
+            Whohasmending.LOGGER.info("Replayed {} journal records for world: {}", replayed, worldId);
+        }
+    }
+
+    /**
+     * スナップショット（JSONファイル）を読み込む
+     */
+    private void loadSnapshot(VillagerRecordSink sink) {
         if (!Files.exists(filePath)) {
             Whohasmending.LOGGER.info("No existing data file for world: {}", worldId);
-            return new HashMap<>();
+            return;
         }
 
         try {
-            String json = Files.readString(filePath);
-            
-            // 空ファイルかチェック
-            if (json == null || json.trim().isEmpty()) {
-                Whohasmending.LOGGER.warn("Data file is empty for world: {}", worldId);
-                return handleCorruptedFile(filePath, worldId);
-            }
+            int count = readRecords(filePath, sink, false);
+            Whohasmending.LOGGER.info("Loaded {} villager records for world: {}", count, worldId);
             
-            Type type = new TypeToken<Map<String, VillagerTradeData>>() {}.getType();
-            Map<String, VillagerTradeData> stringKeyMap = GSON.fromJson(json, type);
-            
-            if (stringKeyMap == null) {
-                return new HashMap<>();
-            }
+        } catch (IllegalStateException | MalformedJsonException | EOFException e) {
+            // 空ファイル・構文エラー・途中で切れたファイルは破損として扱う
+            Whohasmending.LOGGER.error("JSON parse error (possibly corrupted) for world: {}", worldId, e);
+            sink.reset();
+            handleCorruptedFile().forEach(sink::put);
+        } catch (IOException e) {
+            Whohasmending.LOGGER.error("Failed to load data file for world: {}", worldId, e);
+            sink.reset();
+        }
+    }
 
-            // String キーを UUID キーに変換し、バリデーション適用
-            Map<UUID, VillagerTradeData> result = new HashMap<>();
-            int sanitizedCount = 0;
+    /**
+     * JSONファイルを逐次パースし、UUIDキーを変換・検証しながらシンクに渡す
+     * @param file 読み込むファイル
+     * @param sink 読み込んだレコードの受け取り先
+     * @param alwaysSanitize trueの場合は全レコードをサニタイズ（バックアップからの復元用）
+     * @return 読み込んだレコード数
+     */
+    private static int readRecords(Path file, VillagerRecordSink sink, boolean alwaysSanitize) throws IOException {
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            return readRecords(reader, file.getFileName().toString(), sink, alwaysSanitize);
+        }
+    }
+
+    /**
+     * UUIDをキーにしたJSONオブジェクトを逐次パースし、変換・検証しながらシンクに渡す
+     * @param reader 読み込み元（閉じない）
+     * @param source ログに出す読み込み元の名前
+     * @param sink 読み込んだレコードの受け取り先
+     * @param alwaysSanitize trueの場合は全レコードをサニタイズ（バックアップからの復元用）
+     * @return 読み込んだレコード数
+     */
+    static int readRecords(JsonReader reader, String source, VillagerRecordSink sink, boolean alwaysSanitize) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            return 0;
+        }
+        
+        int count = 0;
+        int sanitizedCount = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            VillagerTradeData data = VillagerTradeDataCodec.read(reader);
             
-            for (Map.Entry<String, VillagerTradeData> entry : stringKeyMap.entrySet()) {
-                try {
-                    UUID uuid = UUID.fromString(entry.getKey());
-                    VillagerTradeData data = entry.getValue();
-                    
-                    if (data != null) {
-                        data.setVillagerUuid(uuid);
-                        
-                        // データの検証とサニタイズ
-                        if (!data.isValid()) {
-                            data.sanitize();
-                            sanitizedCount++;
-                        }
-                        
-                        result.put(uuid, data);
-                    }
-                } catch (IllegalArgumentException e) {
-                    Whohasmending.LOGGER.warn("Invalid UUID in data file, skipping: {}", entry.getKey());
-                }
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(key);
+            } catch (IllegalArgumentException e) {
+                Whohasmending.LOGGER.warn("Invalid UUID in data file, skipping: {}", key);
+                continue;
             }
             
-            if (sanitizedCount > 0) {
-                Whohasmending.LOGGER.info("Sanitized {} invalid entries for world: {}", sanitizedCount, worldId);
+            if (data == null) {
+                continue;
             }
+            data.setVillagerUuid(uuid);
             
-            Whohasmending.LOGGER.info("Loaded {} villager records for world: {}", result.size(), worldId);
-            return result;
+            // データの検証とサニタイズ
+            if (alwaysSanitize || !data.isValid()) {
+                data.sanitize();
+                sanitizedCount++;
+            }
             
-        } catch (JsonParseException e) {
-            Whohasmending.LOGGER.error("JSON parse error (possibly corrupted) for world: {}", worldId, e);
-            return handleCorruptedFile(filePath, worldId);
-        } catch (IOException e) {
-            Whohasmending.LOGGER.error("Failed to load data file for world: {}", worldId, e);
-            return new HashMap<>();
+            sink.put(uuid, data);
+            count++;
+        }
+        reader.endObject();
+        
+        if (sanitizedCount > 0 && !alwaysSanitize) {
+            Whohasmending.LOGGER.info("Sanitized {} invalid entries in: {}", sanitizedCount, source);
         }
+        return count;
     }
 
     /**
      * 破損したファイルを処理し、バックアップからの復元を試みる
      */
-    private static Map<UUID, VillagerTradeData> handleCorruptedFile(Path filePath, String worldId) {
+    private Map<UUID, VillagerTradeData> handleCorruptedFile() {
         // 破損したファイルを移動
         Path corruptedPath = filePath.resolveSibling(
             filePath.getFileName() + ".corrupted_" + System.currentTimeMillis()
@@ -128,18 +236,31 @@ public class VillagerDataStorage {
         }
         
         // バックアップからの復元を試す
-        return tryRestoreFromBackup(filePath, worldId);
+        return restore();
+    }
+
+    /**
+     * 最新のバックアップからデータを読み込む
+     * 圧縮チャンク形式のバックアップがまだない場合は、以前の形式（JSONのコピー）から読み込む
+     */
+    @Override
+    public Map<UUID, VillagerTradeData> restore() {
+        Map<UUID, VillagerTradeData> result = new VillagerDataTable();
+        if (backups.read(VillagerRecordSink.into(result))) {
+            return result;
+        }
+        return restoreLegacy();
     }
 
     /**
-     * バックアップからデータを復元する
+     * 以前の形式のバックアップ（backups/<ファイル名>.backup_<日時>）から読み込む
      */
-    private static Map<UUID, VillagerTradeData> tryRestoreFromBackup(Path filePath, String worldId) {
+    private Map<UUID, VillagerTradeData> restoreLegacy() {
         Path backupDir = filePath.getParent().resolve("backups");
         
         if (!Files.exists(backupDir)) {
             Whohasmending.LOGGER.info("No backup directory exists for restoration");
-            return new HashMap<>();
+            return new VillagerDataTable();
         }
         
         try (Stream<Path> backupFiles = Files.list(backupDir)) {
@@ -158,29 +279,11 @@ public class VillagerDataStorage {
             if (latestBackup.isPresent()) {
                 Whohasmending.LOGGER.info("Attempting to restore from backup: {}", latestBackup.get());
                 
-                String json = Files.readString(latestBackup.get());
-                Type type = new TypeToken<Map<String, VillagerTradeData>>() {}.getType();
-                Map<String, VillagerTradeData> stringKeyMap = GSON.fromJson(json, type);
+                Map<UUID, VillagerTradeData> result = new VillagerDataTable();
+                readRecords(latestBackup.get(), VillagerRecordSink.into(result), true);
                 
-                if (stringKeyMap != null) {
-                    Map<UUID, VillagerTradeData> result = new HashMap<>();
-                    for (Map.Entry<String, VillagerTradeData> entry : stringKeyMap.entrySet()) {
-                        try {
-                            UUID uuid = UUID.fromString(entry.getKey());
-                            VillagerTradeData data = entry.getValue();
-                            if (data != null) {
-                                data.setVillagerUuid(uuid);
-                                data.sanitize();
-                                result.put(uuid, data);
-                            }
-                        } catch (IllegalArgumentException e) {
-                            Whohasmending.LOGGER.warn("Invalid UUID in backup, skipping: {}", entry.getKey());
-                        }
-                    }
-                    
-                    Whohasmending.LOGGER.info("Successfully restored {} records from backup", result.size());
-                    return result;
-                }
+                Whohasmending.LOGGER.info("Successfully restored {} records from backup", result.size());
+                return result;
             } else {
                 Whohasmending.LOGGER.info("No backup files found for: {}", worldId);
             }
@@ -188,135 +291,140 @@ public class VillagerDataStorage {
             Whohasmending.LOGGER.error("Failed to restore from backup", e);
         }
         
-        return new HashMap<>();
+        return new VillagerDataTable();
     }
 
     /**
-     * 最新のバックアップからデータを復元（外部呼び出し用）
+     * マニフェストに記録されたバックアップの一覧（以前の形式のバックアップは含まない）
      */
-    public static Map<UUID, VillagerTradeData> restoreFromBackup(String worldId) {
-        Path filePath = getFilePath(worldId);
-        return tryRestoreFromBackup(filePath, worldId);
+    @Override
+    public List<VillagerBackupManifest.Generation> listBackups() {
+        try {
+            return backups.list();
+        } catch (IOException e) {
+            Whohasmending.LOGGER.error("Failed to read backup manifest for world: {}", worldId, e);
+            return List.of();
+        }
+    }
+
+    @Override
+    public void put(UUID villagerUuid, VillagerTradeData data) {
+        apply(List.of(VillagerDataJournal.put(villagerUuid, data)));
+    }
+
+    @Override
+    public void remove(UUID villagerUuid) {
+        apply(List.of(VillagerDataJournal.remove(villagerUuid)));
     }
 
     /**
-     * データをJSONファイルに保存
-     * @param worldId ワールドまたはサーバーの識別子
-     * @param data 保存するデータ
+     * 変更をまとめてジャーナルに追記し、一定サイズを超えたらコンパクションする
      */
-    public static void save(String worldId, Map<UUID, VillagerTradeData> data) {
-        Path filePath = getFilePath(worldId);
+    @Override
+    public void apply(List<VillagerDataJournal.Record> records) {
+        if (records.isEmpty()) {
+            return;
+        }
         
         try {
-            // ディレクトリが存在しない場合は作成
-            Files.createDirectories(filePath.getParent());
-            
-            // バックアップはワールド離脱時のみ作成（saveWithBackupメソッドを使用）
+            long journalSize = VillagerDataJournal.append(journalPath, records);
+            Whohasmending.LOGGER.debug("Committed {} journal records for world: {}", records.size(), worldId);
             
-            // UUID キーを String キーに変換（JSONシリアライズ用）
-            Map<String, VillagerTradeData> stringKeyMap = new HashMap<>();
-            for (Map.Entry<UUID, VillagerTradeData> entry : data.entrySet()) {
-                stringKeyMap.put(entry.getKey().toString(), entry.getValue());
+            if (journalSize > compactThresholdBytes) {
+                compact();
             }
-            
-            // アトミック書き込み（一時ファイル経由）
-            Path tempFile = filePath.resolveSibling(filePath.getFileName() + ".tmp");
-            String json = GSON.toJson(stringKeyMap);
-            Files.writeString(tempFile, json);
-            Files.move(tempFile, filePath, StandardCopyOption.REPLACE_EXISTING);
-            
-            Whohasmending.LOGGER.info("Saved {} villager records for world: {}", data.size(), worldId);
-            
         } catch (IOException e) {
-            Whohasmending.LOGGER.error("Failed to save data file for world: {}", worldId, e);
+            Whohasmending.LOGGER.error("Failed to append journal for world: {}", worldId, e);
         }
     }
 
     /**
-     * バックアップを作成
+     * データを保存（設定された保存形式を使用）
+     * @param data 保存するデータ
      */
-    private static void createBackup(Path filePath) {
+    @Override
+    public void snapshot(Map<UUID, VillagerTradeData> data) {
+        if (isBinaryEngine()) {
+            try {
+                VillagerBinaryStorage.save(binaryPath, data);
+                VillagerDataJournal.delete(journalPath);
+                Whohasmending.LOGGER.debug("Saved {} villager records (binary) for world: {}", data.size(), worldId);
+            } catch (IOException e) {
+                Whohasmending.LOGGER.error("Failed to save binary data file for world: {}", worldId, e);
+            }
+            return;
+        }
+        
+        saveJson(data);
+        
+        // JSONが最新になったので、古いバイナリが次回読み込まれないよう削除
+        VillagerBinaryStorage.delete(binaryPath);
+    }
+
+    /**
+     * データをJSONファイルに保存（バイナリ形式ではエクスポートとして使う）
+     * @param data 保存するデータ
+     */
+    public void saveJson(Map<UUID, VillagerTradeData> data) {
         try {
-            Path backupDir = filePath.getParent().resolve("backups");
-            Files.createDirectories(backupDir);
+            // ディレクトリが存在しない場合は作成
+            Files.createDirectories(filePath.getParent());
             
-            String timestamp = LocalDateTime.now()
-                .format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            Path backupPath = backupDir.resolve(
-                filePath.getFileName() + ".backup_" + timestamp
-            );
+            // バックアップはワールド離脱時のみ作成（saveWithBackupメソッドを使用）
+            
+            // アトミック書き込み（一時ファイル経由）
+            Path tempFile = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+            try (Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8);
+                 JsonWriter writer = new JsonWriter(out)) {
+                writer.setIndent("  ");
+                writer.beginObject();
+                for (Map.Entry<UUID, VillagerTradeData> entry : data.entrySet()) {
+                    writer.name(entry.getKey().toString());
+                    VillagerTradeDataCodec.write(writer, entry.getValue());
+                }
+                writer.endObject();
+            }
+            WhohasmendingMetrics.BYTES_WRITTEN.add(Files.size(tempFile));
+            Files.move(tempFile, filePath, StandardCopyOption.REPLACE_EXISTING);
             
-            Files.copy(filePath, backupPath);
-            Whohasmending.LOGGER.debug("Created backup: {}", backupPath);
+            // スナップショットに全て取り込まれたのでジャーナルは不要
+            VillagerDataJournal.delete(journalPath);
             
-            // 古いバックアップを削除
-            cleanupOldBackups(backupDir, filePath.getFileName().toString());
+            Whohasmending.LOGGER.debug("Saved {} villager records for world: {}", data.size(), worldId);
             
         } catch (IOException e) {
-            Whohasmending.LOGGER.warn("Failed to create backup", e);
+            Whohasmending.LOGGER.error("Failed to save data file for world: {}", worldId, e);
         }
     }
 
     /**
-     * 手動でバックアップを作成（外部呼び出し用）
+     * ジャーナルをスナップショットに畳み込む（コンパクション）
+     * バイナリ形式ではバイナリファイルに畳み込む
      */
-    public static void createManualBackup(String worldId) {
-        Path filePath = getFilePath(worldId);
-        if (Files.exists(filePath)) {
-            createBackup(filePath);
-            Whohasmending.LOGGER.info("Manual backup created for world: {}", worldId);
-        } else {
-            Whohasmending.LOGGER.warn("No data file exists to backup for world: {}", worldId);
-        }
+    public void compact() {
+        snapshot(load());
+        Whohasmending.LOGGER.info("Compacted journal into snapshot for world: {}", worldId);
     }
 
     /**
-     * 古いバックアップを削除（最新のMAX_BACKUPS個を保持）
+     * データのバックアップを作成（前回から変わっていないチャンクは書かない）
+     * 保存済みのファイルは読まず、渡されたデータをそのままバックアップする
      */
-    private static void cleanupOldBackups(Path backupDir, String baseFileName) {
-        try (Stream<Path> backupFiles = Files.list(backupDir)) {
-            String prefix = baseFileName + ".backup_";
-            
-            backupFiles
-                .filter(p -> p.getFileName().toString().startsWith(prefix))
-                .sorted(Comparator.comparingLong((Path p) -> {
-                    try {
-                        return Files.getLastModifiedTime(p).toMillis();
-                    } catch (IOException e) {
-                        return 0L;
-                    }
-                }).reversed())
-                .skip(MAX_BACKUPS)
-                .forEach(p -> {
-                    try {
-                        Files.delete(p);
-                        Whohasmending.LOGGER.debug("Deleted old backup: {}", p);
-                    } catch (IOException e) {
-                        Whohasmending.LOGGER.warn("Failed to delete old backup: {}", p);
-                    }
-                });
-        } catch (IOException e) {
-            Whohasmending.LOGGER.warn("Failed to cleanup old backups", e);
+    @Override
+    public void backup(Map<UUID, VillagerTradeData> data) {
+        try {
+            backups.write(data);
+        } catch (IOException | RuntimeException e) {
+            Whohasmending.LOGGER.warn("Failed to create backup for world: {}", worldId, e);
         }
     }
 
-    /**
-     * データファイルのパスを取得
-     */
-    private static Path getFilePath(String worldId) {
-        // ファイル名に使えない文字を置換
-        String safeWorldId = worldId.replaceAll("[^a-zA-Z0-9._-]", "_");
-        return getConfigDir().resolve(safeWorldId + ".json");
+    @Override
+    public boolean isJournaled() {
+        return engine == StorageEngine.JOURNAL;
     }
 
-    /**
-     * データディレクトリを初期化
-     */
-    public static void ensureDirectoryExists() {
-        try {
-            Files.createDirectories(getConfigDir());
-        } catch (IOException e) {
-            Whohasmending.LOGGER.error("Failed to create config directory", e);
-        }
+    private boolean isBinaryEngine() {
+        return engine == StorageEngine.BINARY;
     }
 }
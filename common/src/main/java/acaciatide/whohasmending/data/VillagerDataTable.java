@@ -0,0 +1,413 @@
+package acaciatide.whohasmending.data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * UUIDの上位・下位64bitをキーにしたオープンアドレス法のハッシュテーブル
+ * キーはプリミティブ配列に並べて保持するため、参照時にノードを辿らずオブジェクトも生成しない
+ * 値がnullのスロットを空きとして扱うため、null値は登録できない
+ *
+ * テーブルはハッシュの上位ビットで64個のセグメントに分かれている
+ * コピーは全セグメントを共有し、書き込む時にそのセグメントだけを複製する（コピーオンライトで変わらない部分を共有するため）
+ */
+public class VillagerDataTable extends AbstractMap<UUID, VillagerTradeData> {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int DEFAULT_SEGMENT_CAPACITY = 8;
+
+    // まだ書き込んでいないセグメントはnull
+    private final Segment[] segments;
+    // このテーブルだけが持っていて、そのまま書き換えてよいセグメント（1bitが1セグメント）
+    private long ownedSegments;
+    private final int segmentCapacity;
+    private int size;
+    private int modCount;
+
+    public VillagerDataTable() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize 想定する件数（この件数までは拡張しない）
+     */
+    public VillagerDataTable(int expectedSize) {
+        segments = new Segment[SEGMENT_COUNT];
+        ownedSegments = -1L;
+        segmentCapacity = Segment.capacityFor(expectedSize / SEGMENT_COUNT + 1);
+    }
+
+    /**
+     * コピーを作成
+     * VillagerDataTableからのコピーはセグメントを共有し、以降はどちらも書き込む時に複製する
+     * そのため元のテーブルの書き込み権も手放させる（元のテーブルの中身は変わらない）
+     */
+    public VillagerDataTable(Map<UUID, VillagerTradeData> source) {
+        if (source instanceof VillagerDataTable table) {
+            segments = table.segments.clone();
+            ownedSegments = 0;
+            segmentCapacity = table.segmentCapacity;
+            size = table.size;
+            table.ownedSegments = 0;
+        } else {
+            segments = new Segment[SEGMENT_COUNT];
+            ownedSegments = -1L;
+            segmentCapacity = Segment.capacityFor(source.size() / SEGMENT_COUNT + 1);
+            putAll(source);
+        }
+    }
+
+    /**
+     * UUIDの2つのlongで直接参照する
+     * @return 登録されていない場合null
+     */
+    public VillagerTradeData get(long msb, long lsb) {
+        int hash = hash(msb, lsb);
+        Segment segment = segments[hash >>> (32 - SEGMENT_BITS)];
+        return segment != null ? segment.get(msb, lsb, hash) : null;
+    }
+
+    @Override
+    public VillagerTradeData get(Object key) {
+        if (!(key instanceof UUID uuid)) {
+            return null;
+        }
+        return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public VillagerTradeData put(UUID key, VillagerTradeData value) {
+        if (value == null) {
+            throw new NullPointerException("VillagerDataTable does not accept null values");
+        }
+
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        VillagerTradeData previous = writableSegment(hash >>> (32 - SEGMENT_BITS)).put(msb, lsb, hash, value);
+        if (previous == null) {
+            size++;
+            modCount++;
+        }
+        return previous;
+    }
+
+    @Override
+    public VillagerTradeData remove(Object key) {
+        if (!(key instanceof UUID uuid)) {
+            return null;
+        }
+
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        int index = hash >>> (32 - SEGMENT_BITS);
+        // 登録されていないキーのためにセグメントを複製しない
+        if (segments[index] == null || segments[index].get(msb, lsb, hash) == null) {
+            return null;
+        }
+        VillagerTradeData previous = writableSegment(index).remove(msb, lsb, hash);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        if (size > 0) {
+            for (int i = 0; i < SEGMENT_COUNT; i++) {
+                segments[i] = null;
+            }
+            ownedSegments = -1L;
+            size = 0;
+            modCount++;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 全件を列挙（Entryを生成しない）
+     */
+    @Override
+    public void forEach(BiConsumer<? super UUID, ? super VillagerTradeData> action) {
+        int expectedModCount = modCount;
+        for (Segment segment : segments) {
+            if (segment == null) {
+                continue;
+            }
+            for (int slot = 0; slot < segment.values.length; slot++) {
+                if (segment.values[slot] != null) {
+                    action.accept(new UUID(segment.msbs[slot], segment.lsbs[slot]), segment.values[slot]);
+                }
+            }
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    public Set<Entry<UUID, VillagerTradeData>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<UUID, VillagerTradeData>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * 読み取り専用のイテレータ（削除は詰め直しで順序が崩れるため非対応）
+     */
+    private class EntryIterator implements Iterator<Entry<UUID, VillagerTradeData>> {
+        private final int expectedModCount = modCount;
+        private int segmentIndex = 0;
+        private int slot = -1;
+
+        @Override
+        public boolean hasNext() {
+            return advance();
+        }
+
+        @Override
+        public Entry<UUID, VillagerTradeData> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!advance()) {
+                throw new NoSuchElementException();
+            }
+            Segment segment = segments[segmentIndex];
+            int current = slot++;
+            return new SimpleImmutableEntry<>(new UUID(segment.msbs[current], segment.lsbs[current]), segment.values[current]);
+        }
+
+        /**
+         * 次の要素の位置まで進める
+         * @return 残りの要素がない場合false
+         */
+        private boolean advance() {
+            if (slot < 0) {
+                slot = 0;
+            }
+            while (segmentIndex < SEGMENT_COUNT) {
+                Segment segment = segments[segmentIndex];
+                if (segment != null) {
+                    while (slot < segment.values.length) {
+                        if (segment.values[slot] != null) {
+                            return true;
+                        }
+                        slot++;
+                    }
+                }
+                segmentIndex++;
+                slot = 0;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * テーブルと値が使うヒープのおおよそのバイト数（他のテーブルと共有しているセグメントも含む）
+     */
+    public long estimateHeapBytes() {
+        // セグメントの参照の配列
+        long bytes = 48 + 4L * SEGMENT_COUNT;
+        for (Segment segment : segments) {
+            if (segment == null) {
+                continue;
+            }
+            // キーの配列2本と値の参照の配列
+            bytes += 96 + 20L * segment.values.length;
+            for (VillagerTradeData value : segment.values) {
+                if (value != null) {
+                    bytes += value.estimateHeapBytes();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 書き込み用のセグメント（他のテーブルと共有している場合は複製する）
+     */
+    private Segment writableSegment(int index) {
+        long bit = 1L << index;
+        Segment segment = segments[index];
+        if (segment == null) {
+            segment = new Segment(segmentCapacity);
+        } else if ((ownedSegments & bit) != 0) {
+            return segment;
+        } else {
+            segment = segment.copy();
+        }
+        segments[index] = segment;
+        ownedSegments |= bit;
+        return segment;
+    }
+
+    /**
+     * 2つのlongを混ぜてハッシュにする（MurmurHash3のfinalizer）
+     * 上位ビットでセグメント、下位ビットでスロットを選ぶ
+     */
+    private static int hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * 1セグメント分のハッシュテーブル（線形探索）
+     */
+    private static final class Segment {
+        private long[] msbs;
+        private long[] lsbs;
+        private VillagerTradeData[] values;
+        private int mask;
+        private int size;
+        private int resizeThreshold;
+
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+
+        private Segment(Segment source) {
+            msbs = source.msbs.clone();
+            lsbs = source.lsbs.clone();
+            values = source.values.clone();
+            mask = source.mask;
+            size = source.size;
+            resizeThreshold = source.resizeThreshold;
+        }
+
+        Segment copy() {
+            return new Segment(this);
+        }
+
+        VillagerTradeData get(long msb, long lsb, int hash) {
+            int slot = hash & mask;
+            VillagerTradeData value;
+            while ((value = values[slot]) != null) {
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        VillagerTradeData put(long msb, long lsb, int hash, VillagerTradeData value) {
+            int slot = hash & mask;
+            VillagerTradeData current;
+            while ((current = values[slot]) != null) {
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    values[slot] = value;
+                    return current;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            msbs[slot] = msb;
+            lsbs[slot] = lsb;
+            values[slot] = value;
+            if (++size > resizeThreshold) {
+                rehash(values.length << 1);
+            }
+            return null;
+        }
+
+        VillagerTradeData remove(long msb, long lsb, int hash) {
+            int slot = hash & mask;
+            VillagerTradeData current;
+            while ((current = values[slot]) != null) {
+                if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    deleteSlot(slot);
+                    return current;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * スロットを空け、後続のクラスタを詰め直す（削除済みの印を残さない）
+         */
+        private void deleteSlot(int slot) {
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (values[next] != null) {
+                int home = hash(msbs[next], lsbs[next]) & mask;
+                // homeがholeとnextの間（循環）にない要素は、holeに移しても探索で見つかる
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    msbs[hole] = msbs[next];
+                    lsbs[hole] = lsbs[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            values[hole] = null;
+            size--;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldMsbs = msbs;
+            long[] oldLsbs = lsbs;
+            VillagerTradeData[] oldValues = values;
+            allocate(capacity);
+
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = hash(oldMsbs[i], oldLsbs[i]) & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    msbs[slot] = oldMsbs[i];
+                    lsbs[slot] = oldLsbs[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            msbs = new long[capacity];
+            lsbs = new long[capacity];
+            values = new VillagerTradeData[capacity];
+            mask = capacity - 1;
+            resizeThreshold = capacity / 4 * 3; // 負荷率0.75
+        }
+
+        static int capacityFor(int expectedSize) {
+            int capacity = DEFAULT_SEGMENT_CAPACITY;
+            while (capacity / 4 * 3 < expectedSize) {
+                capacity <<= 1;
+            }
+            return capacity;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package acaciatide.whohasmending.data;
+
+import acaciatide.whohasmending.Whohasmending;
+import acaciatide.whohasmending.jfr.SaveEvent;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 村人取引データをバックグラウンドで保存するライター（write-behind）
+ * スナップショットは最後の変更からdebounce経過後、または最初の未保存変更からinterval経過後に1回だけ書き込む
+ * ジャーナルレコードはgroupCommit時間ごとにまとめて追記し、1回のfsyncで確定させる
+ */
+public class VillagerDataWriter {
+    private final ScheduledExecutorService executor;
+    private final long debounceMs;
+    private final long intervalMs;
+    private final long groupCommitMs;
+
+    // 未保存の状態: 最新スナップショット（あれば）と、その後に発生したジャーナルレコード
+    private VillagerStore pendingStore;
+    private Map<UUID, VillagerTradeData> pendingSnapshot;
+    private List<VillagerDataJournal.Record> pendingRecords = new ArrayList<>();
+    private long firstDirtyAt;
+    private long lastSnapshotAt;
+    private long firstRecordAt;
+    private ScheduledFuture<?> scheduledFlush;
+
+    public VillagerDataWriter(long debounceMs, long intervalMs, long groupCommitMs) {
+        this.debounceMs = debounceMs;
+        this.intervalMs = intervalMs;
+        this.groupCommitMs = groupCommitMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WhoHasMending-Writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * 保存するスナップショットを登録（呼び出し元はブロックしない）
+     * それ以前に登録されたジャーナルレコードはスナップショットに含まれるため破棄する
+     * @param store 保存先
+     * @param snapshot 保存するデータ（呼び出し後に変更されないコピーを渡すこと）
+     */
+    public synchronized void submit(VillagerStore store, Map<UUID, VillagerTradeData> snapshot) {
+        switchStore(store);
+
+        long now = System.currentTimeMillis();
+        if (pendingSnapshot == null) {
+            firstDirtyAt = now;
+        }
+        lastSnapshotAt = now;
+        pendingSnapshot = snapshot;
+        pendingRecords = new ArrayList<>();
+
+        reschedule(now);
+    }
+
+    /**
+     * ジャーナルに追記するレコードを登録（呼び出し元はブロックしない）
+     * @param store 保存先
+     * @param record 追記するレコード
+     */
+    public synchronized void append(VillagerStore store, VillagerDataJournal.Record record) {
+        switchStore(store);
+
+        long now = System.currentTimeMillis();
+        if (pendingRecords.isEmpty()) {
+            firstRecordAt = now;
+        }
+        pendingRecords.add(record);
+
+        reschedule(now);
+    }
+
+    /**
+     * 未保存データを書き出した後にタスクを実行する（呼び出し元はブロックしない）
+     * 保存と同じスレッドで順番に実行されるため、読み込みが書き込み途中のファイルを読むことはない
+     * @param task ライタースレッドで実行するタスク
+     */
+    public synchronized void execute(Runnable task) {
+        writePendingFirst();
+        executor.execute(task);
+    }
+
+    /**
+     * 未保存データを即座に書き出し、完了まで待つ
+     * @param timeoutMs 待機する最大時間
+     * @return 時間内に書き込みが完了した場合true
+     */
+    public boolean flush(long timeoutMs) {
+        Future<?> future;
+        synchronized (this) {
+            if (!hasPending()) {
+                return true;
+            }
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            future = executor.submit(this::writePending);
+        }
+
+        try {
+            future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            Whohasmending.LOGGER.warn("Timed out after {}ms waiting for villager data to be written", timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Whohasmending.LOGGER.error("Background save failed", e.getCause());
+        }
+        return false;
+    }
+
+    /**
+     * 未保存データと積まれているタスク（バックアップなど）を書き出してからライターを停止
+     * 時間内に終わらなかったタスクは待たない（書き込み途中のファイルは一時ファイルのまま残る）
+     * @param timeoutMs 待機する最大時間
+     */
+    public void shutdown(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        flush(timeoutMs);
+        executor.shutdown();
+        try {
+            long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            if (!executor.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                Whohasmending.LOGGER.warn("Timed out after {}ms waiting for background tasks to finish", timeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 別ストアの未保存データが残っていれば、先に書き出すタスクを積む
+     */
+    private void switchStore(VillagerStore store) {
+        if (pendingStore != null && pendingStore != store && hasPending()) {
+            VillagerStore previousStore = pendingStore;
+            Map<UUID, VillagerTradeData> previousSnapshot = pendingSnapshot;
+            List<VillagerDataJournal.Record> previousRecords = pendingRecords;
+            executor.execute(() -> write(previousStore, previousSnapshot, previousRecords));
+            clearPending();
+        }
+        pendingStore = store;
+    }
+
+    /**
+     * 次の書き込み時刻を計算してタスクを予約し直す
+     */
+    private void reschedule(long now) {
+        long due = Long.MAX_VALUE;
+        if (pendingSnapshot != null) {
+            // 連続した変更はdebounceで後ろにずらすが、intervalを超えては遅らせない
+            due = Math.min(lastSnapshotAt + debounceMs, firstDirtyAt + intervalMs);
+        }
+        if (!pendingRecords.isEmpty()) {
+            due = Math.min(due, firstRecordAt + groupCommitMs);
+        }
+
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = executor.schedule(this::writePending, Math.max(0, due - now), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * ライタースレッド上で未保存データを書き込む
+     */
+    private void writePending() {
+        VillagerStore store;
+        Map<UUID, VillagerTradeData> snapshot;
+        List<VillagerDataJournal.Record> records;
+        synchronized (this) {
+            store = pendingStore;
+            snapshot = pendingSnapshot;
+            records = pendingRecords;
+            clearPending();
+        }
+
+        write(store, snapshot, records);
+    }
+
+    /**
+     * スナップショット→個別の変更の順に書き込む
+     */
+    private void write(VillagerStore store, Map<UUID, VillagerTradeData> snapshot, List<VillagerDataJournal.Record> records) {
+        if (store == null) {
+            return;
+        }
+
+        if (snapshot == null && records.isEmpty()) {
+            return;
+        }
+
+        SaveEvent event = new SaveEvent();
+        event.begin();
+        // 書き込むのはこのスレッドだけなので、差分がこの保存で書いたバイト数になる
+        long bytesBefore = WhohasmendingMetrics.BYTES_WRITTEN.get();
+        long start = System.nanoTime();
+        try {
+            if (snapshot != null) {
+                store.snapshot(snapshot);
+            }
+
+            if (!records.isEmpty()) {
+                store.apply(records);
+            }
+            WhohasmendingMetrics.SAVES.increment();
+        } catch (RuntimeException e) {
+            WhohasmendingMetrics.SAVE_FAILURES.increment();
+            Whohasmending.LOGGER.error("Unexpected error while saving villager data for world: {}", store.getWorldId(), e);
+        } finally {
+            WhohasmendingMetrics.SAVE_LATENCY.recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.worldId = store.getWorldId();
+                event.snapshotRecords = snapshot != null ? snapshot.size() : 0;
+                event.journalRecords = records.size();
+                event.bytes = WhohasmendingMetrics.BYTES_WRITTEN.get() - bytesBefore;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * 未保存データがあれば、次に積むタスクより先に書き込まれるよう積む
+     */
+    private void writePendingFirst() {
+        if (hasPending()) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            executor.execute(this::writePending);
+        }
+    }
+
+    private boolean hasPending() {
+        return pendingSnapshot != null || !pendingRecords.isEmpty();
+    }
+
+    private void clearPending() {
+        pendingSnapshot = null;
+        pendingRecords = new ArrayList<>();
+        firstDirtyAt = 0;
+        lastSnapshotAt = 0;
+        firstRecordAt = 0;
+        scheduledFlush = null;
+    }
+}
@@ -0,0 +1,83 @@
+package acaciatide.whohasmending.data;
+
+import java.util.Objects;
+
+/**
+ * 村人を最後に見かけた位置（ディメンションとブロック座標）
+ * 変更しない値オブジェクトとして扱う
+ */
+public final class VillagerPosition {
+    private final String dimension;
+    private final int x;
+    private final int y;
+    private final int z;
+
+    public VillagerPosition(String dimension, int x, int y, int z) {
+        this.dimension = dimension;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    /**
+     * ディメンションのID（"minecraft:overworld" など）
+     */
+    public String getDimension() {
+        return dimension;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public int getChunkX() {
+        return x >> 4;
+    }
+
+    public int getChunkZ() {
+        return z >> 4;
+    }
+
+    /**
+     * 指定したブロック座標までの距離の2乗
+     */
+    public long distanceSquared(int x, int y, int z) {
+        long dx = this.x - x;
+        long dy = this.y - y;
+        long dz = this.z - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * 同じディメンションで、指定した距離（ブロック）以内にあるか
+     */
+    public boolean isWithin(VillagerPosition other, int distance) {
+        return other != null && dimension.equals(other.dimension)
+                && distanceSquared(other.x, other.y, other.z) <= (long) distance * distance;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VillagerPosition that)) return false;
+        return x == that.x && y == that.y && z == that.z && dimension.equals(that.dimension);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dimension, x, y, z);
+    }
+
+    @Override
+    public String toString() {
+        return x + ", " + y + ", " + z;
+    }
+}
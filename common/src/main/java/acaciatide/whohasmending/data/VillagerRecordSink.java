@@ -0,0 +1,57 @@
+package acaciatide.whohasmending.data;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 読み込んだ村人データを1件ずつ受け取るインターフェース
+ * 中間のMapを作らずにファイルから直接データを流し込むために使う
+ */
+public interface VillagerRecordSink {
+
+    /**
+     * レコードを登録または更新
+     */
+    void put(UUID villagerUuid, VillagerTradeData data);
+
+    /**
+     * レコードを削除
+     */
+    void remove(UUID villagerUuid);
+
+    /**
+     * それまでに受け取ったレコードを全て破棄（破損したファイルをバックアップで置き換える場合など）
+     */
+    void reset();
+
+    /**
+     * それまでに受け取ったレコードを全て破棄し、まとめて置き換える（メモリマップしたデータなど）
+     * @param data 置き換えるデータ（以降は受け取り側のものとして扱う）
+     */
+    default void replace(Map<UUID, VillagerTradeData> data) {
+        reset();
+        data.forEach(this::put);
+    }
+
+    /**
+     * Mapに書き込むシンクを作成
+     */
+    static VillagerRecordSink into(Map<UUID, VillagerTradeData> map) {
+        return new VillagerRecordSink() {
+            @Override
+            public void put(UUID villagerUuid, VillagerTradeData data) {
+                map.put(villagerUuid, data);
+            }
+
+            @Override
+            public void remove(UUID villagerUuid) {
+                map.remove(villagerUuid);
+            }
+
+            @Override
+            public void reset() {
+                map.clear();
+            }
+        };
+    }
+}
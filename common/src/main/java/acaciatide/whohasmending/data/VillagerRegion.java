@@ -0,0 +1,84 @@
+package acaciatide.whohasmending.data;
+
+import java.util.Objects;
+
+/**
+ * 村人データを分割して保存する単位（ディメンションごとの32x32チャンク）
+ * 位置の分からない村人は1つの領域（UNPLACED）にまとめる
+ */
+public final class VillagerRegion {
+    // 1つの領域の幅（チャンク数の2の累乗の指数、5で32チャンク）
+    static final int CHUNK_SHIFT = 5;
+
+    /**
+     * 位置の分からない村人の領域（常に読み込んでおく）
+     */
+    public static final VillagerRegion UNPLACED = new VillagerRegion(null, 0, 0);
+
+    private final String dimension;
+    private final int regionX;
+    private final int regionZ;
+
+    private VillagerRegion(String dimension, int regionX, int regionZ) {
+        this.dimension = dimension;
+        this.regionX = regionX;
+        this.regionZ = regionZ;
+    }
+
+    /**
+     * チャンクが含まれる領域
+     */
+    public static VillagerRegion ofChunk(String dimension, int chunkX, int chunkZ) {
+        return new VillagerRegion(dimension, chunkX >> CHUNK_SHIFT, chunkZ >> CHUNK_SHIFT);
+    }
+
+    /**
+     * 村人を最後に見かけた位置が含まれる領域
+     * @param position 最後に見かけた位置（分からない場合null）
+     */
+    public static VillagerRegion of(VillagerPosition position) {
+        if (position == null || position.getDimension() == null) {
+            return UNPLACED;
+        }
+        return ofChunk(position.getDimension(), position.getChunkX(), position.getChunkZ());
+    }
+
+    /**
+     * 村人データが含まれる領域
+     */
+    public static VillagerRegion of(VillagerTradeData data) {
+        return of(data.getLastSeen());
+    }
+
+    /**
+     * @return 位置の分からない村人の領域ではnull
+     */
+    public String getDimension() {
+        return dimension;
+    }
+
+    public int getRegionX() {
+        return regionX;
+    }
+
+    public int getRegionZ() {
+        return regionZ;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VillagerRegion other)) return false;
+        return regionX == other.regionX && regionZ == other.regionZ && Objects.equals(dimension, other.dimension);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dimension, regionX, regionZ);
+    }
+
+    @Override
+    public String toString() {
+        return dimension == null ? "unplaced" : dimension + " r." + regionX + "." + regionZ;
+    }
+}
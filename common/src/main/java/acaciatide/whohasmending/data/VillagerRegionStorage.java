@@ -0,0 +1,378 @@
+package acaciatide.whohasmending.data;
+
+import acaciatide.whohasmending.Whohasmending;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+import acaciatide.whohasmending.config.WhohasmendingConfig.StorageEngine;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * 村人データをディメンションと領域（32x32チャンク）ごとのJSONファイルに分けて保存するストア
+ * クライアントが受け取ったチャンクの領域だけを読み込み、保存時は内容が変わった領域のファイルだけを書き直す
+ * 位置の分からない村人は1つのファイルにまとめ、常に読み込む
+ * 書き込み・読み込みはライタースレッドから順番に行われる前提
+ */
+public class VillagerRegionStorage implements VillagerStore {
+    private static final String UNPLACED_FILE = "unplaced.json";
+    private static final String REGION_PREFIX = "r.";
+    private static final String REGION_SUFFIX = ".json";
+
+    private final String worldId;
+    private final String safeWorldId;
+    private final Path dataDirectory;
+    private final Path directory;
+    // バックアップと以前の形式からの取り込みは1ファイル形式のストアに任せる
+    private final VillagerDataStorage singleFile;
+
+    // メモリに読み込まれている領域 -> 最後に保存した（または読み込んだ）内容
+    // 公開済みのレコードは変更されないため、内容の比較はレコードの参照で行う
+    private final Map<VillagerRegion, Map<UUID, VillagerTradeData>> resident = new HashMap<>();
+
+    /**
+     * @param dataDirectory データファイルを置くディレクトリ（領域のファイルは<ワールド>.regions/以下に置く）
+     * @param worldId ワールドまたはサーバーの識別子
+     * @param maxBackupGenerations 保持するバックアップの世代数
+     */
+    public VillagerRegionStorage(Path dataDirectory, String worldId, int maxBackupGenerations) {
+        this.worldId = worldId;
+        this.safeWorldId = worldId.replaceAll("[^a-zA-Z0-9._-]", "_");
+        this.dataDirectory = dataDirectory;
+        this.directory = dataDirectory.resolve(safeWorldId + ".regions");
+        this.singleFile = new VillagerDataStorage(dataDirectory, worldId, StorageEngine.JSON, Long.MAX_VALUE,
+                maxBackupGenerations);
+    }
+
+    @Override
+    public String getWorldId() {
+        return worldId;
+    }
+
+    @Override
+    public boolean isPartial() {
+        return true;
+    }
+
+    /**
+     * 位置の分からない村人だけを読み込む（他の領域はloadRegionで読み込む）
+     * 領域のディレクトリがまだない場合は、以前の1ファイル形式のデータを取り込んでから読み込む
+     */
+    @Override
+    public synchronized Map<UUID, VillagerTradeData> load() {
+        importSingleFile();
+
+        Map<UUID, VillagerTradeData> unplaced = readRegion(VillagerRegion.UNPLACED);
+        resident.clear();
+        resident.put(VillagerRegion.UNPLACED, new HashMap<>(unplaced));
+        Whohasmending.LOGGER.info("Loaded {} villager records without a known position for world: {}",
+                unplaced.size(), worldId);
+        return unplaced;
+    }
+
+    @Override
+    public synchronized Map<UUID, VillagerTradeData> loadRegion(VillagerRegion region) {
+        Map<UUID, VillagerTradeData> data = readRegion(region);
+        Whohasmending.LOGGER.debug("Loaded {} villager records in region {} for world: {}", data.size(), region, worldId);
+        return data;
+    }
+
+    @Override
+    public synchronized void onRegionResident(VillagerRegion region, Map<UUID, VillagerTradeData> data) {
+        resident.put(region, new HashMap<>(data));
+    }
+
+    @Override
+    public synchronized void onRegionEvicted(VillagerRegion region) {
+        if (!VillagerRegion.UNPLACED.equals(region)) {
+            resident.remove(region);
+        }
+    }
+
+    /**
+     * 読み込んでいる領域のうち、内容が変わった領域のファイルだけを書き直す
+     * 読み込んでいない領域に入った村人は、その領域の保存済みの内容に追加する
+     * @param data 読み込んでいる領域のデータ（呼び出し後に変更されないもの）
+     */
+    @Override
+    public synchronized void snapshot(Map<UUID, VillagerTradeData> data) {
+        Map<VillagerRegion, Map<UUID, VillagerTradeData>> groups = group(data);
+        int written = 0;
+
+        for (Map.Entry<VillagerRegion, Map<UUID, VillagerTradeData>> entry : groups.entrySet()) {
+            VillagerRegion region = entry.getKey();
+            Map<UUID, VillagerTradeData> saved = resident.get(region);
+            if (saved == null) {
+                Map<UUID, VillagerTradeData> merged = readRegion(region);
+                merged.putAll(entry.getValue());
+                writeRegion(region, merged);
+                written++;
+            } else if (!sameRecords(saved, entry.getValue())) {
+                writeRegion(region, entry.getValue());
+                resident.put(region, entry.getValue());
+                written++;
+            }
+        }
+
+        // 読み込んでいる領域から村人がいなくなった
+        for (Map.Entry<VillagerRegion, Map<UUID, VillagerTradeData>> entry : resident.entrySet()) {
+            if (!groups.containsKey(entry.getKey()) && !entry.getValue().isEmpty()) {
+                writeRegion(entry.getKey(), Map.of());
+                entry.setValue(new HashMap<>());
+                written++;
+            }
+        }
+
+        Whohasmending.LOGGER.debug("Saved {} of {} loaded regions for world: {}", written, resident.size(), worldId);
+    }
+
+    /**
+     * 全ての領域のファイルを削除し、渡されたデータで作り直す
+     */
+    @Override
+    public synchronized void replaceAll(Map<UUID, VillagerTradeData> data) {
+        for (Path file : listRegionFiles()) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                Whohasmending.LOGGER.error("Failed to delete region file: {}", file, e);
+            }
+        }
+
+        Map<VillagerRegion, Map<UUID, VillagerTradeData>> groups = group(data);
+        for (Map.Entry<VillagerRegion, Map<UUID, VillagerTradeData>> entry : groups.entrySet()) {
+            writeRegion(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<VillagerRegion, Map<UUID, VillagerTradeData>> entry : resident.entrySet()) {
+            Map<UUID, VillagerTradeData> group = groups.get(entry.getKey());
+            entry.setValue(group != null ? group : new HashMap<>());
+        }
+        Whohasmending.LOGGER.info("Saved {} villager records in {} regions for world: {}", data.size(), groups.size(), worldId);
+    }
+
+    /**
+     * 1件の登録・更新を、村人のいる領域のファイルに書き込む
+     */
+    @Override
+    public synchronized void put(UUID villagerUuid, VillagerTradeData data) {
+        VillagerRegion region = VillagerRegion.of(data);
+        // 別の領域から移ってきた場合は、読み込んでいる領域からは外す
+        removeFromResident(villagerUuid, region);
+
+        Map<UUID, VillagerTradeData> saved = resident.get(region);
+        Map<UUID, VillagerTradeData> next = saved != null ? new HashMap<>(saved) : readRegion(region);
+        next.put(villagerUuid, data);
+        writeRegion(region, next);
+        if (saved != null) {
+            resident.put(region, next);
+        }
+    }
+
+    /**
+     * 1件の削除を保存（読み込んでいる領域にいる村人のみ）
+     */
+    @Override
+    public synchronized void remove(UUID villagerUuid) {
+        removeFromResident(villagerUuid, null);
+    }
+
+    private void removeFromResident(UUID villagerUuid, VillagerRegion except) {
+        for (Map.Entry<VillagerRegion, Map<UUID, VillagerTradeData>> entry : resident.entrySet()) {
+            if (!entry.getKey().equals(except) && entry.getValue().containsKey(villagerUuid)) {
+                Map<UUID, VillagerTradeData> next = new HashMap<>(entry.getValue());
+                next.remove(villagerUuid);
+                writeRegion(entry.getKey(), next);
+                entry.setValue(next);
+            }
+        }
+    }
+
+    /**
+     * 読み込んでいない領域の保存済みデータも含めてバックアップを作成
+     */
+    @Override
+    public synchronized void backup(Map<UUID, VillagerTradeData> data) {
+        Set<Path> residentFiles = new HashSet<>();
+        for (VillagerRegion region : resident.keySet()) {
+            residentFiles.add(regionPath(region));
+        }
+
+        Map<UUID, VillagerTradeData> all = new VillagerDataTable(data);
+        for (Path file : listRegionFiles()) {
+            if (!residentFiles.contains(file)) {
+                readFile(file).forEach(all::putIfAbsent);
+            }
+        }
+        singleFile.backup(all);
+    }
+
+    @Override
+    public Map<UUID, VillagerTradeData> restore() {
+        return singleFile.restore();
+    }
+
+    @Override
+    public List<VillagerBackupManifest.Generation> listBackups() {
+        return singleFile.listBackups();
+    }
+
+    /**
+     * 領域のディレクトリがまだなければ、以前の1ファイル形式（JSON・ジャーナル・バイナリ）のデータを領域ごとに分けて書き出す
+     * 以前のファイルはそのまま残す
+     */
+    private void importSingleFile() {
+        if (Files.isDirectory(directory)) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            Whohasmending.LOGGER.error("Failed to create region directory for world: {}", worldId, e);
+            return;
+        }
+
+        StorageEngine engine = Files.exists(dataDirectory.resolve(safeWorldId + ".whm"))
+                ? StorageEngine.BINARY : StorageEngine.JSON;
+        Map<UUID, VillagerTradeData> data = new VillagerDataStorage(dataDirectory, worldId, engine, Long.MAX_VALUE).load();
+        if (data.isEmpty()) {
+            return;
+        }
+
+        Map<VillagerRegion, Map<UUID, VillagerTradeData>> groups = group(data);
+        for (Map.Entry<VillagerRegion, Map<UUID, VillagerTradeData>> entry : groups.entrySet()) {
+            writeRegion(entry.getKey(), entry.getValue());
+        }
+        Whohasmending.LOGGER.info("Imported {} villager records into {} regions for world: {}", data.size(), groups.size(), worldId);
+    }
+
+    /**
+     * 村人を最後に見かけた位置の領域ごとに分ける
+     */
+    private static Map<VillagerRegion, Map<UUID, VillagerTradeData>> group(Map<UUID, VillagerTradeData> data) {
+        Map<VillagerRegion, Map<UUID, VillagerTradeData>> groups = new HashMap<>();
+        for (Map.Entry<UUID, VillagerTradeData> entry : data.entrySet()) {
+            groups.computeIfAbsent(VillagerRegion.of(entry.getValue()), region -> new HashMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        return groups;
+    }
+
+    /**
+     * 同じ村人が同じレコード（参照）で揃っているか
+     * 変わったレコードは書き換えずに置き換えられるため、参照が同じなら前回保存した時から変わっていない
+     */
+    private static boolean sameRecords(Map<UUID, VillagerTradeData> saved, Map<UUID, VillagerTradeData> current) {
+        if (saved.size() != current.size()) {
+            return false;
+        }
+        for (Map.Entry<UUID, VillagerTradeData> entry : current.entrySet()) {
+            if (saved.get(entry.getKey()) != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path regionPath(VillagerRegion region) {
+        if (region.getDimension() == null) {
+            return directory.resolve(UNPLACED_FILE);
+        }
+        return directory.resolve(region.getDimension().replaceAll("[^a-zA-Z0-9._-]", "_"))
+                .resolve(REGION_PREFIX + region.getRegionX() + "." + region.getRegionZ() + REGION_SUFFIX);
+    }
+
+    /**
+     * 全ての領域のファイル（バックアップや全削除の時だけ使う）
+     */
+    private List<Path> listRegionFiles() {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            return files
+                .filter(p -> p.getFileName().toString().endsWith(REGION_SUFFIX) && Files.isRegularFile(p))
+                .toList();
+        } catch (IOException e) {
+            Whohasmending.LOGGER.error("Failed to list region files for world: {}", worldId, e);
+            return List.of();
+        }
+    }
+
+    private Map<UUID, VillagerTradeData> readRegion(VillagerRegion region) {
+        return readFile(regionPath(region));
+    }
+
+    /**
+     * 領域のファイルを読み込む
+     * 壊れたファイルは別名で残し、その領域は空として扱う（/whm restoreで戻せる）
+     */
+    private Map<UUID, VillagerTradeData> readFile(Path file) {
+        Map<UUID, VillagerTradeData> result = new VillagerDataTable();
+        if (!Files.exists(file)) {
+            return result;
+        }
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            VillagerDataStorage.readRecords(reader, file.getFileName().toString(), VillagerRecordSink.into(result), false);
+        } catch (IllegalStateException | MalformedJsonException | EOFException e) {
+            Whohasmending.LOGGER.error("JSON parse error (possibly corrupted) in region file: {}", file, e);
+            result.clear();
+            Path corruptedPath = file.resolveSibling(file.getFileName() + ".corrupted_" + System.currentTimeMillis());
+            try {
+                Files.move(file, corruptedPath);
+                Whohasmending.LOGGER.warn("Moved corrupted file to: {}", corruptedPath);
+            } catch (IOException moveError) {
+                Whohasmending.LOGGER.error("Failed to move corrupted file", moveError);
+            }
+        } catch (IOException e) {
+            Whohasmending.LOGGER.error("Failed to load region file: {}", file, e);
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * 領域のファイルを書き直す（村人がいなくなった領域はファイルごと削除）
+     */
+    private void writeRegion(VillagerRegion region, Map<UUID, VillagerTradeData> data) {
+        Path file = regionPath(region);
+        try {
+            if (data.isEmpty()) {
+                Files.deleteIfExists(file);
+                return;
+            }
+
+            Files.createDirectories(file.getParent());
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8);
+                 JsonWriter writer = new JsonWriter(out)) {
+                writer.setIndent("  ");
+                writer.beginObject();
+                for (Map.Entry<UUID, VillagerTradeData> entry : data.entrySet()) {
+                    writer.name(entry.getKey().toString());
+                    VillagerTradeDataCodec.write(writer, entry.getValue());
+                }
+                writer.endObject();
+            }
+            WhohasmendingMetrics.BYTES_WRITTEN.add(Files.size(tempFile));
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Whohasmending.LOGGER.error("Failed to save region {} for world: {}", region, worldId, e);
+        }
+    }
+}
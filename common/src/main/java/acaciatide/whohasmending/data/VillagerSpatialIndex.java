@@ -0,0 +1,222 @@
+package acaciatide.whohasmending.data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * 村人を最後に見かけた位置をディメンション・チャンクごとのバケットに分けて保持する空間インデックス
+ * 近くの村人の検索や範囲指定の処理で、エンティティ一覧や全データを走査せずに済む
+ * スレッド安全ではないため、VillagerDataManagerのロック内で使う
+ */
+public class VillagerSpatialIndex {
+    // ディメンション -> チャンク座標 -> そのチャンクにいる村人
+    private final Map<String, Map<Long, List<UUID>>> buckets = new HashMap<>();
+    private final Map<UUID, VillagerPosition> positions = new HashMap<>();
+    // trueの場合、次の検索時に全データから作り直す
+    private boolean stale;
+
+    /**
+     * 村人の位置を登録し直す（nullの場合は外す）
+     */
+    public void put(UUID villagerUuid, VillagerPosition position) {
+        if (stale) {
+            return;
+        }
+        VillagerPosition previous = position != null ? positions.put(villagerUuid, position) : positions.remove(villagerUuid);
+        if (previous != null) {
+            if (position != null && sameChunk(previous, position)) {
+                return;
+            }
+            removeFromBucket(villagerUuid, previous);
+        }
+        if (position != null) {
+            buckets.computeIfAbsent(position.getDimension(), k -> new HashMap<>())
+                    .computeIfAbsent(chunkKey(position.getChunkX(), position.getChunkZ()), k -> new ArrayList<>(4))
+                    .add(villagerUuid);
+        }
+    }
+
+    /**
+     * 村人を外す
+     */
+    public void remove(UUID villagerUuid) {
+        put(villagerUuid, null);
+    }
+
+    /**
+     * 全て破棄
+     */
+    public void clear() {
+        buckets.clear();
+        positions.clear();
+        stale = false;
+    }
+
+    /**
+     * データがまとめて置き換わった時に呼ぶ（作り直しは次の検索まで遅らせる）
+     */
+    public void invalidate() {
+        buckets.clear();
+        positions.clear();
+        stale = true;
+    }
+
+    /**
+     * 登録されている位置を取得
+     * @param data 作り直しが必要な場合に使う現在のデータ
+     * @return 位置が分からない場合null
+     */
+    public VillagerPosition getPosition(UUID villagerUuid, Map<UUID, VillagerTradeData> data) {
+        rebuildIfStale(data);
+        return positions.get(villagerUuid);
+    }
+
+    /**
+     * 指定した位置から近い順に村人を検索
+     * 内側のチャンクから輪状に広げ、それ以上近い村人がいなくなった時点で打ち切る
+     * @param origin 検索の中心
+     * @param maxDistance 最大距離（ブロック）
+     * @param limit 返す最大件数
+     * @param filter 対象にする村人の条件
+     * @param data 作り直しが必要な場合に使う現在のデータ
+     */
+    public List<UUID> nearest(VillagerPosition origin, int maxDistance, int limit, Predicate<UUID> filter,
+                              Map<UUID, VillagerTradeData> data) {
+        rebuildIfStale(data);
+
+        List<UUID> result = new ArrayList<>();
+        Map<Long, List<UUID>> chunks = buckets.get(origin.getDimension());
+        if (chunks == null || limit <= 0) {
+            return result;
+        }
+
+        long maxDistanceSquared = (long) maxDistance * maxDistance;
+        List<Candidate> candidates = new ArrayList<>();
+        int maxRing = (maxDistance >> 4) + 1;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int dx = -ring; dx <= ring; dx++) {
+                for (int dz = -ring; dz <= ring; dz++) {
+                    // 輪の外周のチャンクだけを見る
+                    if (Math.abs(dx) != ring && Math.abs(dz) != ring) {
+                        continue;
+                    }
+                    List<UUID> bucket = chunks.get(chunkKey(origin.getChunkX() + dx, origin.getChunkZ() + dz));
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (UUID uuid : bucket) {
+                        VillagerPosition position = positions.get(uuid);
+                        long distanceSquared = position.distanceSquared(origin.getX(), origin.getY(), origin.getZ());
+                        if (distanceSquared <= maxDistanceSquared && filter.test(uuid)) {
+                            candidates.add(new Candidate(uuid, distanceSquared));
+                        }
+                    }
+                }
+            }
+
+            // 次の輪のチャンクは中心から少なくとも ring * 16 ブロック離れている
+            if (candidates.size() >= limit) {
+                candidates.sort(Comparator.comparingLong(c -> c.distanceSquared));
+                long reach = (long) ring * 16;
+                if (candidates.get(limit - 1).distanceSquared <= reach * reach) {
+                    break;
+                }
+            }
+        }
+
+        candidates.sort(Comparator.comparingLong(c -> c.distanceSquared));
+        for (int i = 0; i < candidates.size() && i < limit; i++) {
+            result.add(candidates.get(i).uuid);
+        }
+        return result;
+    }
+
+    /**
+     * 指定したチャンク範囲（両端を含む）にいる村人を列挙
+     * @param data 作り直しが必要な場合に使う現在のデータ
+     */
+    public void forEachInChunks(String dimension, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ,
+                                BiConsumer<UUID, VillagerPosition> action, Map<UUID, VillagerTradeData> data) {
+        rebuildIfStale(data);
+
+        Map<Long, List<UUID>> chunks = buckets.get(dimension);
+        if (chunks == null) {
+            return;
+        }
+        long area = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+        if (area > chunks.size()) {
+            // 範囲が広い場合は登録済みのチャンクだけを見る
+            chunks.forEach((key, bucket) -> {
+                int chunkX = (int) (key >> 32);
+                int chunkZ = (int) (long) key;
+                if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                    bucket.forEach(uuid -> action.accept(uuid, positions.get(uuid)));
+                }
+            });
+            return;
+        }
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                List<UUID> bucket = chunks.get(chunkKey(chunkX, chunkZ));
+                if (bucket != null) {
+                    bucket.forEach(uuid -> action.accept(uuid, positions.get(uuid)));
+                }
+            }
+        }
+    }
+
+    /**
+     * 位置が登録されている村人の数
+     */
+    public int size() {
+        return positions.size();
+    }
+
+    private void removeFromBucket(UUID villagerUuid, VillagerPosition position) {
+        Map<Long, List<UUID>> chunks = buckets.get(position.getDimension());
+        if (chunks == null) {
+            return;
+        }
+        long key = chunkKey(position.getChunkX(), position.getChunkZ());
+        List<UUID> bucket = chunks.get(key);
+        if (bucket != null && bucket.remove(villagerUuid) && bucket.isEmpty()) {
+            chunks.remove(key);
+            if (chunks.isEmpty()) {
+                buckets.remove(position.getDimension());
+            }
+        }
+    }
+
+    private void rebuildIfStale(Map<UUID, VillagerTradeData> data) {
+        if (!stale) {
+            return;
+        }
+        stale = false;
+        data.forEach((uuid, villager) -> put(uuid, villager.getLastSeen()));
+    }
+
+    private static boolean sameChunk(VillagerPosition a, VillagerPosition b) {
+        return a.getChunkX() == b.getChunkX() && a.getChunkZ() == b.getChunkZ()
+                && a.getDimension().equals(b.getDimension());
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static class Candidate {
+        final UUID uuid;
+        final long distanceSquared;
+
+        Candidate(UUID uuid, long distanceSquared) {
+            this.uuid = uuid;
+            this.distanceSquared = distanceSquared;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package acaciatide.whohasmending.data;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 1つのワールド/サーバー分の村人データの保存先
+ * 保存・バックアップ・復元はライタースレッドから順番に行われる
+ */
+public interface VillagerStore {
+
+    /**
+     * ワールドまたはサーバーの識別子
+     */
+    String getWorldId();
+
+    /**
+     * 全データを読み込む
+     * @return 村人データのMap (UUID -> VillagerTradeData)
+     */
+    Map<UUID, VillagerTradeData> load();
+
+    /**
+     * 全データを読み込み、1件ずつ（またはまとめて）シンクに渡す
+     * 既定ではload()の結果でまとめて置き換える
+     */
+    default void load(VillagerRecordSink sink) {
+        sink.replace(load());
+    }
+
+    /**
+     * 1件の登録・更新を保存
+     */
+    void put(UUID villagerUuid, VillagerTradeData data);
+
+    /**
+     * 1件の削除を保存
+     */
+    void remove(UUID villagerUuid);
+
+    /**
+     * 複数の変更をまとめて保存（既定では1件ずつ）
+     */
+    default void apply(List<VillagerDataJournal.Record> records) {
+        for (VillagerDataJournal.Record record : records) {
+            if (record.isRemove()) {
+                remove(record.getUuid());
+            } else {
+                put(record.getUuid(), record.getData());
+            }
+        }
+    }
+
+    /**
+     * 変更を1件ずつジャーナルに追記して保存するストアか
+     * trueの場合は変更ごとにput/removeを、falseの場合はsnapshotで全データを保存する
+     */
+    default boolean isJournaled() {
+        return false;
+    }
+
+    /**
+     * 全データを保存（それまでのput/removeは全て置き換えられる）
+     * @param data 保存するデータ（呼び出し後に変更されないもの）
+     */
+    void snapshot(Map<UUID, VillagerTradeData> data);
+
+    /**
+     * 全データを置き換えて保存（全削除やバックアップからの復元で使う）
+     * 既定ではsnapshotと同じ
+     * @param data 保存するデータ（呼び出し後に変更されないもの）
+     */
+    default void replaceAll(Map<UUID, VillagerTradeData> data) {
+        snapshot(data);
+    }
+
+    /**
+     * 領域ごとに分割し、読み込んだ領域のデータだけを扱うストアか
+     * trueの場合、load()は位置の分からない村人だけを返し、snapshot()は読み込んだ領域だけを書き直す
+     */
+    default boolean isPartial() {
+        return false;
+    }
+
+    /**
+     * 1つの領域のデータを読み込む（isPartial()のストアのみ）
+     * @return 領域のデータ（呼び出し元が変更しないこと）
+     */
+    default Map<UUID, VillagerTradeData> loadRegion(VillagerRegion region) {
+        return Map.of();
+    }
+
+    /**
+     * 読み込んだ領域のデータが反映された時に呼ぶ（以降のsnapshot()はこの領域を書き直す対象にする）
+     * @param data loadRegion()が返したデータ
+     */
+    default void onRegionResident(VillagerRegion region, Map<UUID, VillagerTradeData> data) {
+    }
+
+    /**
+     * 領域のデータがメモリから外された時に呼ぶ（以降のsnapshot()に含まれなくても削除しない）
+     */
+    default void onRegionEvicted(VillagerRegion region) {
+    }
+
+    /**
+     * データのバックアップを作成
+     * isPartial()のストアでは、読み込んでいない領域の保存済みデータも含める
+     * @param data バックアップするデータ（保存済みの内容と同じで、呼び出し後に変更されないもの）
+     */
+    void backup(Map<UUID, VillagerTradeData> data);
+
+    /**
+     * 最新のバックアップを読み込む（保存済みのデータは変更しない）
+     * @return バックアップのデータ（バックアップがない場合は空）
+     */
+    Map<UUID, VillagerTradeData> restore();
+
+    /**
+     * 保持しているバックアップの一覧
+     * @return 古い順の世代（バックアップがない場合は空）
+     */
+    List<VillagerBackupManifest.Generation> listBackups();
+}
@@ -0,0 +1,66 @@
+package acaciatide.whohasmending.data;
+
+import acaciatide.whohasmending.config.WhohasmendingConfig;
+import acaciatide.whohasmending.config.WhohasmendingConfig.StorageEngine;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ワールド/サーバーごとに使うストアを選ぶ
+ */
+@FunctionalInterface
+public interface VillagerStoreFactory {
+
+    /**
+     * 指定されたワールド/サーバーのストアを開く
+     * @param worldId ワールドまたはサーバーの識別子
+     */
+    VillagerStore open(String worldId);
+
+    /**
+     * 設定ファイルの保存形式に従うストア（config/whohasmending/data に保存）
+     * 設定はワールドを開くたびに参照する
+     */
+    static VillagerStoreFactory fromConfig() {
+        VillagerStoreFactory memory = memory();
+        return worldId -> {
+            WhohasmendingConfig config = WhohasmendingConfig.getInstance();
+            if (config.getStorageEngine() == StorageEngine.MEMORY) {
+                return memory.open(worldId);
+            }
+            Path dataDirectory = WhohasmendingConfig.getConfigDirectory().resolve("data");
+            int maxBackupGenerations = (int) Math.min(config.getBackupMaxGenerations(), Integer.MAX_VALUE);
+            if (config.getStorageEngine() == StorageEngine.REGION) {
+                return new VillagerRegionStorage(dataDirectory, worldId, maxBackupGenerations);
+            }
+            return new VillagerDataStorage(dataDirectory, worldId,
+                    config.getStorageEngine(), config.getJournalCompactThresholdBytes(), maxBackupGenerations);
+        };
+    }
+
+    /**
+     * 指定したディレクトリにファイルで保存するストア
+     * @param dataDirectory データファイルを置くディレクトリ
+     * @param engine 保存形式（MEMORY以外）
+     * @param compactThresholdBytes ジャーナルをスナップショットへ畳み込むサイズ（バイト）
+     */
+    static VillagerStoreFactory files(Path dataDirectory, StorageEngine engine, long compactThresholdBytes) {
+        if (engine == StorageEngine.MEMORY) {
+            throw new IllegalArgumentException("MEMORY is not a file storage engine");
+        }
+        if (engine == StorageEngine.REGION) {
+            return worldId -> new VillagerRegionStorage(dataDirectory, worldId, VillagerBackupStore.DEFAULT_MAX_GENERATIONS);
+        }
+        return worldId -> new VillagerDataStorage(dataDirectory, worldId, engine, compactThresholdBytes);
+    }
+
+    /**
+     * メモリ上にのみ保持するストア（同じワールドを開き直すと同じストアを返す）
+     */
+    static VillagerStoreFactory memory() {
+        Map<String, VillagerStore> stores = new ConcurrentHashMap<>();
+        return worldId -> stores.computeIfAbsent(worldId, InMemoryVillagerStore::new);
+    }
+}
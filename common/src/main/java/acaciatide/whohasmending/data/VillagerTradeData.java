@@ -2,17 +2,26 @@ package acaciatide.whohasmending.data;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
  * 村人1体分の取引情報を保持するデータクラス
  */
 public class VillagerTradeData {
+    // フィンガープリントの計算に使うFNV-1aの定数
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     private UUID villagerUuid;
     private String displayName;
     private transient String profession; // JSON保存対象外
     private transient long lastUpdated;  // JSON保存対象外
+    // 計算済みのフィンガープリント（取引リストを変えるメソッドで捨てる）
+    private transient long fingerprint;
+    private transient boolean hasFingerprint;
     private List<TradeEntry> trades;
+    private VillagerPosition lastSeen;
 
     public VillagerTradeData() {
         this.trades = new ArrayList<>();
@@ -38,8 +47,115 @@ public class VillagerTradeData {
         this.villagerUuid = villagerUuid;
     }
 
+    public void setDisplayName(String displayName) {
+        this.displayName = displayName;
+    }
+
     public void setTrades(List<TradeEntry> trades) {
         this.trades = trades;
+        this.hasFingerprint = false;
+    }
+
+    /**
+     * 最後に見かけた位置（分からない場合null）
+     */
+    public VillagerPosition getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(VillagerPosition lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+    /**
+     * 位置だけを変えたコピーを作成（公開済みのデータは変更しないため）
+     * 取引リストは共有する
+     */
+    public VillagerTradeData withLastSeen(VillagerPosition lastSeen) {
+        VillagerTradeData copy = new VillagerTradeData(villagerUuid, profession);
+        copy.displayName = displayName;
+        copy.lastUpdated = lastUpdated;
+        copy.trades = trades;
+        copy.fingerprint = fingerprint;
+        copy.hasFingerprint = hasFingerprint;
+        copy.lastSeen = lastSeen;
+        return copy;
+    }
+
+    /**
+     * 取引内容のフィンガープリント（64bitのFNV-1a）
+     * 保存される値（エンチャント名・ID・レベル・コスト）だけから計算し、位置は含まない
+     * 同じ村人を開き直しただけの場合は前回と同じ値になる
+     * 値が違っても一致することはあるため、変更がないと判断する前にhasSameTradesで確かめる
+     * 一度計算した値はレコードに持っておく（取引リストの中身を直接変えた場合は反映されない）
+     */
+    public long getFingerprint() {
+        if (hasFingerprint) {
+            return fingerprint;
+        }
+        long hash = FNV_OFFSET;
+        for (TradeEntry trade : trades) {
+            hash = mixString(hash, trade.getEnchantmentName());
+            hash = mixString(hash, trade.getEnchantmentId());
+            hash = (hash ^ trade.getEnchantmentLevel()) * FNV_PRIME;
+            hash = (hash ^ trade.getEmeraldCost()) * FNV_PRIME;
+        }
+        fingerprint = hash;
+        hasFingerprint = true;
+        return hash;
+    }
+
+    private static long mixString(long hash, String value) {
+        if (value == null) {
+            return (hash ^ 0xff) * FNV_PRIME;
+        }
+        // 文字を1つずつ混ぜる（String.hashCodeの32bitに縮めない）
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return (hash ^ 0xfe) * FNV_PRIME; // 文字列の区切り
+    }
+
+    /**
+     * 保存される取引内容（エンチャント名・ID・レベル・コスト）が全て同じか
+     */
+    public boolean hasSameTrades(VillagerTradeData other) {
+        if (trades.size() != other.trades.size()) {
+            return false;
+        }
+        for (int i = 0; i < trades.size(); i++) {
+            TradeEntry a = trades.get(i);
+            TradeEntry b = other.trades.get(i);
+            if (a.getEnchantmentLevel() != b.getEnchantmentLevel() || a.getEmeraldCost() != b.getEmeraldCost()
+                    || !Objects.equals(a.getEnchantmentName(), b.getEnchantmentName())
+                    || !Objects.equals(a.getEnchantmentId(), b.getEnchantmentId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * このレコードが使うヒープのおおよそのバイト数（64bit・圧縮参照のJVMを想定）
+     * 共有している文字列や位置も含めて数えるため、実際よりやや大きめになる
+     */
+    public long estimateHeapBytes() {
+        // レコード本体 + UUID + 取引リスト（ArrayListと配列）
+        long bytes = 48 + 32 + 40 + 4L * trades.size();
+        bytes += estimateStringBytes(displayName) + estimateStringBytes(profession);
+        for (TradeEntry trade : trades) {
+            bytes += 32 + estimateStringBytes(trade.getItemName()) + estimateStringBytes(trade.getEnchantmentName())
+                    + estimateStringBytes(trade.getEnchantmentId());
+        }
+        if (lastSeen != null) {
+            bytes += 32 + estimateStringBytes(lastSeen.getDimension());
+        }
+        return bytes;
+    }
+
+    private static long estimateStringBytes(String value) {
+        // Stringとbyte配列（日本語などは1文字2バイト）
+        return value == null ? 0 : 40 + 2L * value.length();
     }
 
     /**
@@ -63,6 +179,7 @@ public class VillagerTradeData {
      */
     public void addTrade(TradeEntry trade) {
         this.trades.add(trade);
+        this.hasFingerprint = false;
     }
 
     /**
@@ -70,6 +187,7 @@ public class VillagerTradeData {
      */
     public void clearTrades() {
         this.trades.clear();
+        this.hasFingerprint = false;
     }
 
     /**
@@ -86,6 +204,8 @@ public class VillagerTradeData {
     public boolean isValid() {
         if (villagerUuid == null) return false;
         if (trades == null) return false;
+        // 取引がないのに表示名がある（表示名は最初の取引から作るため）
+        if (trades.isEmpty() && displayName != null) return false;
         
         // 各取引エントリをチェック
         for (TradeEntry trade : trades) {
@@ -114,6 +234,12 @@ public class VillagerTradeData {
             }
         }
         trades = validTrades;
+        hasFingerprint = false;
+
+        // 取引が全て除かれた場合、保存されていた表示名も使えない
+        if (trades.isEmpty()) {
+            displayName = null;
+        }
     }
 }
 
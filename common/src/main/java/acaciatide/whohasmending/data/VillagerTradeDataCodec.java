@@ -0,0 +1,208 @@
+package acaciatide.whohasmending.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * VillagerTradeData / TradeEntry をリフレクションを使わずにJSONへ読み書きするコーデック
+ * フィールド名・並び順は従来のGson（リフレクション）での保存形式と同じ
+ * transientフィールド（profession, lastUpdated, itemName）は読み書きしない
+ */
+public final class VillagerTradeDataCodec {
+    private static final String VILLAGER_UUID = "villagerUuid";
+    private static final String DISPLAY_NAME = "displayName";
+    private static final String TRADES = "trades";
+    private static final String ENCHANTMENT_NAME = "enchantmentName";
+    private static final String ENCHANTMENT_ID = "enchantmentId";
+    private static final String ENCHANTMENT_LEVEL = "enchantmentLevel";
+    private static final String EMERALD_COST = "emeraldCost";
+    private static final String LAST_SEEN = "lastSeen";
+    private static final String DIMENSION = "dimension";
+
+    private VillagerTradeDataCodec() {
+    }
+
+    /**
+     * 村人データを1件読み込む
+     * 未知のフィールドは読み飛ばす
+     * @return JSONがnullの場合null
+     */
+    public static VillagerTradeData read(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        VillagerTradeData data = new VillagerTradeData();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                if (TRADES.equals(name)) {
+                    data.setTrades(null); // 検証時にサニタイズされる
+                }
+                continue;
+            }
+
+            switch (name) {
+                case VILLAGER_UUID -> data.setVillagerUuid(parseUuid(reader));
+                case DISPLAY_NAME -> data.setDisplayName(reader.nextString());
+                case TRADES -> data.setTrades(readTrades(reader));
+                case LAST_SEEN -> data.setLastSeen(readPosition(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return data;
+    }
+
+    /**
+     * 村人データを1件書き込む（nullのフィールドは省略）
+     */
+    public static void write(JsonWriter writer, VillagerTradeData data) throws IOException {
+        writer.beginObject();
+        if (data.getVillagerUuid() != null) {
+            writer.name(VILLAGER_UUID).value(data.getVillagerUuid().toString());
+        }
+        if (data.getDisplayName() != null) {
+            writer.name(DISPLAY_NAME).value(data.getDisplayName());
+        }
+        List<TradeEntry> trades = data.getTrades();
+        if (trades != null) {
+            writer.name(TRADES);
+            writer.beginArray();
+            for (int i = 0; i < trades.size(); i++) {
+                writeTrade(writer, trades.get(i));
+            }
+            writer.endArray();
+        }
+        if (data.getLastSeen() != null) {
+            writer.name(LAST_SEEN);
+            writePosition(writer, data.getLastSeen());
+        }
+        writer.endObject();
+    }
+
+    /**
+     * 位置を読み込む（ディメンションがない場合はnull）
+     */
+    static VillagerPosition readPosition(JsonReader reader) throws IOException {
+        String dimension = null;
+        int x = 0;
+        int y = 0;
+        int z = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case DIMENSION -> dimension = reader.nextString();
+                case "x" -> x = nextInt(reader);
+                case "y" -> y = nextInt(reader);
+                case "z" -> z = nextInt(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return dimension != null ? new VillagerPosition(dimension, x, y, z) : null;
+    }
+
+    static void writePosition(JsonWriter writer, VillagerPosition position) throws IOException {
+        writer.beginObject();
+        writer.name(DIMENSION).value(position.getDimension());
+        writer.name("x").value(position.getX());
+        writer.name("y").value(position.getY());
+        writer.name("z").value(position.getZ());
+        writer.endObject();
+    }
+
+    private static List<TradeEntry> readTrades(JsonReader reader) throws IOException {
+        List<TradeEntry> trades = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            trades.add(readTrade(reader));
+        }
+        reader.endArray();
+        return trades;
+    }
+
+    private static TradeEntry readTrade(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null; // 検証時に除去される
+        }
+
+        TradeEntry trade = new TradeEntry();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case ENCHANTMENT_NAME -> trade.setEnchantmentName(reader.nextString());
+                case ENCHANTMENT_ID -> trade.setEnchantmentId(reader.nextString());
+                case ENCHANTMENT_LEVEL -> trade.setEnchantmentLevel(nextInt(reader));
+                case EMERALD_COST -> trade.setEmeraldCost(nextInt(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return trade;
+    }
+
+    private static void writeTrade(JsonWriter writer, TradeEntry trade) throws IOException {
+        if (trade == null) {
+            writer.nullValue();
+            return;
+        }
+
+        writer.beginObject();
+        if (trade.getEnchantmentName() != null) {
+            writer.name(ENCHANTMENT_NAME).value(trade.getEnchantmentName());
+        }
+        if (trade.getEnchantmentId() != null) {
+            writer.name(ENCHANTMENT_ID).value(trade.getEnchantmentId());
+        }
+        writer.name(ENCHANTMENT_LEVEL).value(trade.getEnchantmentLevel());
+        writer.name(EMERALD_COST).value(trade.getEmeraldCost());
+        writer.endObject();
+    }
+
+    /**
+     * 数値以外（不正な文字列など）は破損として扱う
+     */
+    private static int nextInt(JsonReader reader) throws IOException {
+        try {
+            return reader.nextInt();
+        } catch (NumberFormatException e) {
+            throw new MalformedJsonException("Expected an int at " + reader.getPath(), e);
+        }
+    }
+
+    /**
+     * 村人UUIDはキーから設定し直すため、不正な値はnullとして読み飛ばす
+     */
+    private static UUID parseUuid(JsonReader reader) throws IOException {
+        String value = reader.nextString();
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package acaciatide.whohasmending.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * バックアップの作成と復元の読み込み（どちらもライタースレッド）
+ */
+@Name("acaciatide.whohasmending.Backup")
+@Label("Villager Data Backup")
+@Category("WhoHasMending")
+@Description("Creating or restoring a villager data backup")
+@StackTrace(false)
+public class BackupEvent extends Event {
+    public static final String CREATE = "create";
+    public static final String RESTORE = "restore";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("World Id")
+    public String worldId;
+
+    @Label("Records")
+    public int records;
+
+    @Label("Bytes Written")
+    @Description("New backup chunks written, 0 for restore")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,31 @@
+package acaciatide.whohasmending.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 取引オファーから村人データを作って記録するまで（キャプチャスレッド）
+ */
+@Name("acaciatide.whohasmending.Capture")
+@Label("Villager Trade Capture")
+@Category("WhoHasMending")
+@Description("Translating and recording the trade offers of one villager")
+@StackTrace(false)
+public class CaptureEvent extends Event {
+    @Label("World Id")
+    public String worldId;
+
+    @Label("Villager UUID")
+    public String villagerUuid;
+
+    @Label("Trades")
+    public int trades;
+
+    @Label("Recorded")
+    @Description("False if the capture was discarded because the world changed")
+    public boolean recorded;
+}
@@ -0,0 +1,28 @@
+package acaciatide.whohasmending.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * ワールド参加時の村人データの読み込み（ライタースレッド）
+ */
+@Name("acaciatide.whohasmending.Load")
+@Label("Villager Data Load")
+@Category("WhoHasMending")
+@Description("Reading the villager data of a world on join")
+@StackTrace(false)
+public class LoadEvent extends Event {
+    @Label("World Id")
+    public String worldId;
+
+    @Label("Records")
+    @Description("Records read, or the size of a memory-mapped table")
+    public int records;
+
+    @Label("Cancelled")
+    public boolean cancelled;
+}
@@ -0,0 +1,33 @@
+package acaciatide.whohasmending.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 村人データの1回の保存（ライタースレッド）
+ */
+@Name("acaciatide.whohasmending.Save")
+@Label("Villager Data Save")
+@Category("WhoHasMending")
+@Description("Writing pending villager data to disk")
+@StackTrace(false)
+public class SaveEvent extends Event {
+    @Label("World Id")
+    public String worldId;
+
+    @Label("Snapshot Records")
+    @Description("Records in the written snapshot, 0 if only journal records were written")
+    public int snapshotRecords;
+
+    @Label("Journal Records")
+    public int journalRecords;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,32 @@
+package acaciatide.whohasmending.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * ワールドへの参加・離脱の処理（クライアントスレッド）
+ * 読み込み・保存の本体はライタースレッドで行うため、ここには待った時間だけが含まれる
+ */
+@Name("acaciatide.whohasmending.World")
+@Label("World Join/Leave")
+@Category("WhoHasMending")
+@Description("Switching villager data on world join or leave")
+@StackTrace(false)
+public class WorldEvent extends Event {
+    public static final String JOIN = "join";
+    public static final String LEAVE = "leave";
+
+    @Label("Action")
+    public String action;
+
+    @Label("World Id")
+    public String worldId;
+
+    @Label("Records")
+    @Description("Records in memory when leaving, 0 when joining")
+    public int records;
+}
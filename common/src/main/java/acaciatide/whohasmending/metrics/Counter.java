@@ -0,0 +1,38 @@
+package acaciatide.whohasmending.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 増えるだけの回数・量（起動してからの合計）
+ * 複数スレッドから同時に加算してもロックやメモリ確保をしない
+ */
+public final class Counter implements Metric {
+    private final String name;
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String format() {
+        return Long.toString(get());
+    }
+}
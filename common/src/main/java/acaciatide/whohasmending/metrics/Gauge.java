@@ -0,0 +1,31 @@
+package acaciatide.whohasmending.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 読み取った時点の値（件数・キューの深さなど）
+ * 値は表示する時にだけ計算する
+ */
+public final class Gauge implements Metric {
+    private final String name;
+    private final LongSupplier supplier;
+
+    Gauge(String name, LongSupplier supplier) {
+        this.name = name;
+        this.supplier = supplier;
+    }
+
+    public long get() {
+        return supplier.getAsLong();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String format() {
+        return Long.toString(get());
+    }
+}
@@ -0,0 +1,114 @@
+package acaciatide.whohasmending.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 所要時間の分布（マイクロ秒単位の2の累乗ごとのバケット）
+ * 記録はバケット1つの加算と合計・最大値の更新だけで、メモリ確保をしない
+ * パーセンタイルはバケットの上限で返すため、最大で2倍まで大きめの値になる
+ */
+public final class LatencyHistogram implements Metric {
+    // バケットiは 2^i マイクロ秒以下（1つ前のバケットより大きいもの）、最後のバケットはそれ以上全て
+    private static final int BUCKETS = 32;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 所要時間を1回分記録する
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = (nanos + 999) / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * 開始時刻（System.nanoTime）から今までを記録する
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / n;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * パーセンタイルが含まれるバケットの上限（マイクロ秒）
+     * @param percentile 0～100
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String format() {
+        long n = getCount();
+        if (n == 0) {
+            return "n=0";
+        }
+        return "n=" + n + " mean=" + formatNanos(getMeanNanos())
+                + " p50<=" + formatMicros(getPercentileMicros(50))
+                + " p99<=" + formatMicros(getPercentileMicros(99))
+                + " max=" + formatNanos(getMaxNanos());
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1_000_000) {
+            return String.format("%.1fus", nanos / 1000.0);
+        }
+        return String.format("%.1fms", nanos / 1_000_000.0);
+    }
+
+    private static String formatMicros(long micros) {
+        return micros < 1000 ? micros + "us" : (micros / 1000) + "ms";
+    }
+}
@@ -0,0 +1,13 @@
+package acaciatide.whohasmending.metrics;
+
+/**
+ * 計測値1つ（/whm statsで名前と値を表示する）
+ */
+public interface Metric {
+    String getName();
+
+    /**
+     * 表示用の値（例: "12", "n=3 mean=1.2ms p99<=4ms max=3.1ms"）
+     */
+    String format();
+}
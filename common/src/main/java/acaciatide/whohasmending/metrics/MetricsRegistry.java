@@ -0,0 +1,51 @@
+package acaciatide.whohasmending.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 計測値の一覧（登録順に表示する）
+ * 登録は起動時だけ行い、計測する側は登録で受け取ったCounterなどを直接更新する
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized Counter counter(String name) {
+        return register(new Counter(name));
+    }
+
+    public synchronized Gauge gauge(String name, LongSupplier supplier) {
+        return register(new Gauge(name, supplier));
+    }
+
+    public synchronized LatencyHistogram histogram(String name) {
+        return register(new LatencyHistogram(name));
+    }
+
+    /**
+     * 登録されている計測値（登録順、読み取り専用のコピー）
+     */
+    public synchronized List<Metric> getMetrics() {
+        return Collections.unmodifiableList(new ArrayList<>(metrics.values()));
+    }
+
+    private <T extends Metric> T register(T metric) {
+        if (metrics.putIfAbsent(metric.getName(), metric) != null) {
+            throw new IllegalArgumentException("Metric already registered: " + metric.getName());
+        }
+        return metric;
+    }
+}
@@ -0,0 +1,64 @@
+package acaciatide.whohasmending.metrics;
+
+import acaciatide.whohasmending.capture.TradeCapturePipeline;
+import acaciatide.whohasmending.data.VillagerDataManager;
+
+import java.util.List;
+
+/**
+ * このModの計測値
+ * 保存・読み込み・キャプチャ・描画の各所から直接更新し、/whm statsで一覧を表示する
+ */
+public final class WhohasmendingMetrics {
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getInstance();
+
+    // キャプチャ（キャプチャスレッドでの記録までの時間）
+    public static final LatencyHistogram CAPTURE_LATENCY = REGISTRY.histogram("capture.latency");
+
+    // 保存（ライタースレッドでの1回の書き込み）
+    public static final Counter SAVES = REGISTRY.counter("save.count");
+    public static final Counter SAVE_FAILURES = REGISTRY.counter("save.failures");
+    public static final LatencyHistogram SAVE_LATENCY = REGISTRY.histogram("save.latency");
+    public static final Counter BYTES_WRITTEN = REGISTRY.counter("save.bytesWritten");
+    public static final Counter BACKUP_BYTES_WRITTEN = REGISTRY.counter("backup.bytesWritten");
+
+    // 読み込み（ワールド参加時の全体の読み込み）
+    public static final LatencyHistogram LOAD_TIME = REGISTRY.histogram("load.time");
+
+    // 描画（ネームタグのラベル）
+    // lookupsは描画時にラベルを引いた回数、hits/missesはティックでラベルを引いた時に作成済みだったか
+    public static final Counter RENDER_LOOKUPS = REGISTRY.counter("render.nameplateLookups");
+    public static final Counter LABEL_HITS = REGISTRY.counter("render.labelCache.hits");
+    public static final Counter LABEL_MISSES = REGISTRY.counter("render.labelCache.misses");
+    public static final LatencyHistogram HUD_UPDATE = REGISTRY.histogram("render.hud.update");
+
+    static {
+        TradeCapturePipeline pipeline = TradeCapturePipeline.getInstance();
+        REGISTRY.gauge("capture.submitted", pipeline::getSubmittedCount);
+        REGISTRY.gauge("capture.processed", pipeline::getProcessedCount);
+        REGISTRY.gauge("capture.coalesced", pipeline::getCoalescedCount);
+        REGISTRY.gauge("capture.dropped", pipeline::getDroppedCount);
+        REGISTRY.gauge("capture.queueDepth", pipeline::getQueueDepth);
+        REGISTRY.gauge("capture.queueHighWater", pipeline::getHighWaterMark);
+
+        REGISTRY.gauge("render.labelCache.hitRatePercent", () -> {
+            long hits = LABEL_HITS.get();
+            long total = hits + LABEL_MISSES.get();
+            return total == 0 ? 0 : hits * 100 / total;
+        });
+
+        VillagerDataManager manager = VillagerDataManager.getInstance();
+        REGISTRY.gauge("records.resident", manager::getRecordCount);
+        REGISTRY.gauge("records.estimatedHeapBytes", manager::estimateHeapBytes);
+    }
+
+    private WhohasmendingMetrics() {
+    }
+
+    /**
+     * 登録されている全ての計測値（登録順）
+     */
+    public static List<Metric> getAll() {
+        return REGISTRY.getMetrics();
+    }
+}
@@ -0,0 +1,42 @@
+package acaciatide.whohasmending.mixin.client;
+
+import acaciatide.whohasmending.capture.MerchantInteractionTracker;
+import acaciatide.whohasmending.capture.VillagerTradeCapture;
+import net.minecraft.client.multiplayer.ClientPacketListener;
+import net.minecraft.network.protocol.game.ClientboundMerchantOffersPacket;
+import net.minecraft.network.protocol.game.ClientboundOpenScreenPacket;
+import net.minecraft.world.inventory.MenuType;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * ClientPacketListenerにフックして、取引オファーが届いた時に取引情報をキャプチャするMixin
+ * 取引画面の描画ごとにオファーを確認する必要がなくなる
+ */
+@Mixin(ClientPacketListener.class)
+public abstract class ClientPacketListenerMixin {
+
+    /**
+     * 取引画面が開いた時に、話しかけたエンティティとコンテナIDを対応付ける
+     * それ以外の画面が開いた時は、話しかけた記録を捨てる
+     */
+    @Inject(method = "handleOpenScreen", at = @At("TAIL"))
+    private void onOpenScreen(ClientboundOpenScreenPacket packet, CallbackInfo ci) {
+        if (packet.getType() == MenuType.MERCHANT) {
+            MerchantInteractionTracker.getInstance().onMerchantScreenOpened(packet.getContainerId());
+        } else {
+            MerchantInteractionTracker.getInstance().onOtherScreenOpened();
+        }
+    }
+
+    /**
+     * オファーが取引画面に反映された後に1回だけ呼ばれる
+     * TAILはクライアントスレッドに切り替わった後の処理でのみ到達する
+     */
+    @Inject(method = "handleMerchantOffers", at = @At("TAIL"))
+    private void onMerchantOffers(ClientboundMerchantOffersPacket packet, CallbackInfo ci) {
+        VillagerTradeCapture.onMerchantOffers(packet.getContainerId(), packet.getOffers());
+    }
+}
@@ -0,0 +1,27 @@
+package acaciatide.whohasmending.mixin.client;
+
+import acaciatide.whohasmending.capture.MerchantInteractionTracker;
+import net.minecraft.client.multiplayer.MultiPlayerGameMode;
+import net.minecraft.world.InteractionHand;
+import net.minecraft.world.InteractionResult;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.player.Player;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * MultiPlayerGameModeにフックして、プレイヤーが話しかけたエンティティを記録するMixin
+ */
+@Mixin(MultiPlayerGameMode.class)
+public abstract class MultiPlayerGameModeMixin {
+
+    /**
+     * サーバーに話しかけた操作を送る時に呼ばれる
+     */
+    @Inject(method = "interact", at = @At("HEAD"))
+    private void onInteract(Player player, Entity entity, InteractionHand hand, CallbackInfoReturnable<InteractionResult> cir) {
+        MerchantInteractionTracker.getInstance().onInteract(entity);
+    }
+}
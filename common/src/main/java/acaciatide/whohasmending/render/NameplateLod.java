@@ -0,0 +1,44 @@
+package acaciatide.whohasmending.render;
+
+import acaciatide.whohasmending.config.WhohasmendingConfig;
+
+/**
+ * カメラからの距離に応じてネームタグの表示内容を決める
+ * 読めない距離の村人にはラベルの参照自体を行わない
+ * 視錐台の外の村人はバニラが描画状態を作らないため、計算済みのラベルも使われない
+ */
+public final class NameplateLod {
+    /**
+     * ネームタグの表示内容
+     */
+    public enum Level {
+        // 取引内容をすべて表示
+        FULL,
+        // コストだけを表示
+        COST_ONLY,
+        // 表示しない
+        NONE
+    }
+
+    private NameplateLod() {
+    }
+
+    /**
+     * 表示内容を決める
+     * @param distanceToCameraSq カメラからの距離の2乗
+     * @param targeted クロスヘアを合わせている村人か
+     */
+    public static Level select(double distanceToCameraSq, boolean targeted) {
+        WhohasmendingConfig config = WhohasmendingConfig.getInstance();
+        if (config.isLabelCrosshairOnly() && !targeted) {
+            return Level.NONE;
+        }
+
+        double full = config.getLabelFullDistance();
+        if (distanceToCameraSq <= full * full) {
+            return Level.FULL;
+        }
+        double max = config.getLabelMaxDistance();
+        return distanceToCameraSq <= max * max ? Level.COST_ONLY : Level.NONE;
+    }
+}
@@ -0,0 +1,133 @@
+package acaciatide.whohasmending.render;
+
+import acaciatide.whohasmending.config.WhohasmendingConfig;
+import acaciatide.whohasmending.data.NearbyDealsRanking;
+import acaciatide.whohasmending.data.TradeEntry;
+import acaciatide.whohasmending.data.VillagerDataManager;
+import acaciatide.whohasmending.data.VillagerPosition;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiGraphicsExtractor;
+import net.minecraft.network.chat.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 近くの村人が売るエンチャント本を安い順に表示するパネル（hud.enabledで有効化）
+ * ランキングの更新はティックごとに時間を区切って行い、描画時は作っておいた行を書くだけにする
+ */
+public class NearbyDealsHud {
+    private static final int MARGIN = 4;
+    private static final int PADDING = 2;
+    private static final int BACKGROUND_COLOR = 0x80000000;
+    private static final int TEXT_COLOR = 0xFFFFFFFF;
+
+    private static final NearbyDealsHud INSTANCE = new NearbyDealsHud();
+
+    private final NearbyDealsRanking ranking = new NearbyDealsRanking();
+
+    // 描画する行とその最大幅（ランキングが変わった時だけ作り直す）
+    private volatile List<String> lines = Collections.emptyList();
+    private volatile int width;
+
+    private NearbyDealsHud() {
+    }
+
+    public static NearbyDealsHud getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 村人のデータや位置が変わった時に呼ぶ
+     */
+    public void invalidate(UUID villagerUuid) {
+        // 無効の間は通知を溜めない（有効にした時は最初に全体を調べ直す）
+        if (WhohasmendingConfig.getInstance().isHudEnabled()) {
+            ranking.invalidate(villagerUuid);
+        }
+    }
+
+    /**
+     * データがまとめて置き換わった時に呼ぶ
+     */
+    public void clear() {
+        ranking.clear();
+    }
+
+    /**
+     * クライアントティックごとに呼び出す
+     */
+    public void tick(Minecraft client) {
+        WhohasmendingConfig config = WhohasmendingConfig.getInstance();
+        if (!config.isHudEnabled()) {
+            return;
+        }
+        if (client.level == null || client.player == null
+                || VillagerDataManager.getInstance().getCurrentWorldId() == null) {
+            ranking.clear();
+            lines = Collections.emptyList();
+            return;
+        }
+
+        VillagerPosition player = new VillagerPosition(client.level.dimension().identifier().toString(),
+                client.player.getBlockX(), client.player.getBlockY(), client.player.getBlockZ());
+        long start = System.nanoTime();
+        boolean changed = ranking.update(player, (int) Math.min(config.getHudRadiusBlocks(), Integer.MAX_VALUE),
+                (int) Math.min(config.getHudMaxEntries(), Integer.MAX_VALUE), config.getHudTickBudgetMicros() * 1000);
+        WhohasmendingMetrics.HUD_UPDATE.recordSince(start);
+        if (changed) {
+            rebuildLines(client.font);
+        }
+    }
+
+    /**
+     * パネルを描画する（HUDの描画時に呼び出す）
+     */
+    public void render(GuiGraphicsExtractor graphics) {
+        List<String> lines = this.lines;
+        if (lines.isEmpty()) {
+            return;
+        }
+        Minecraft client = Minecraft.getInstance();
+        if (client.options.hideGui || !VillagerDataManager.getInstance().isDisplayEnabled()) {
+            return;
+        }
+
+        Font font = client.font;
+        int height = lines.size() * font.lineHeight;
+        graphics.fill(MARGIN - PADDING, MARGIN - PADDING, MARGIN + width + PADDING, MARGIN + height + PADDING,
+                BACKGROUND_COLOR);
+        int y = MARGIN;
+        for (String line : lines) {
+            graphics.drawString(font, line, MARGIN, y, TEXT_COLOR);
+            y += font.lineHeight;
+        }
+    }
+
+    private void rebuildLines(Font font) {
+        List<NearbyDealsRanking.Deal> deals = ranking.getTop();
+        if (deals.isEmpty()) {
+            lines = Collections.emptyList();
+            return;
+        }
+
+        List<String> result = new ArrayList<>(deals.size() + 1);
+        // 見出しは言語ファイルから（ティックはクライアントスレッドなので翻訳してよい）
+        result.add("§6" + Component.translatable("hud.whohasmending.nearby_deals").getString());
+        for (NearbyDealsRanking.Deal deal : deals) {
+            TradeEntry trade = new TradeEntry(null, deal.getEnchantmentName(), deal.getEnchantmentLevel(), deal.getEmeraldCost());
+            result.add("§f" + trade.getDisplayText() + " §7" + deal.getDistance() + "m");
+        }
+
+        int maxWidth = 0;
+        for (String line : result) {
+            maxWidth = Math.max(maxWidth, font.width(line));
+        }
+        width = maxWidth;
+        lines = Collections.unmodifiableList(result);
+    }
+}
@@ -0,0 +1,360 @@
+package acaciatide.whohasmending.render;
+
+import acaciatide.whohasmending.data.VillagerDataManager;
+import acaciatide.whohasmending.data.VillagerTradeData;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+import net.minecraft.client.Minecraft;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntityAttachment;
+import net.minecraft.world.entity.npc.villager.Villager;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * ネームタグに表示する内容のテーブル
+ * クライアント側のエンティティID（int）をキーに、村人ごとの表示内容をクライアントティックごとに計算しておく
+ * 村人データの参照・距離による表示内容の選択・Componentの結合・表示位置の計算はティックで行い、
+ * 毎フレームの描画ではint1つの探索と計算済みの値のコピーだけを行う
+ * テーブル自体はクライアントスレッドだけが触り、他のスレッドからの破棄要求はキューを経由して次のティックで反映する
+ */
+public class VillagerLabelCache {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final VillagerLabelCache INSTANCE = new VillagerLabelCache();
+
+    // エンティティID -> ラベルのオープンアドレス法テーブル（ラベルがnullのスロットは空き）
+    private int[] entityIds;
+    private Label[] labels;
+    private int mask;
+    private int size;
+
+    // 他のスレッドからの破棄要求
+    private final ConcurrentLinkedQueue<UUID> pendingInvalidations = new ConcurrentLinkedQueue<>();
+    private volatile boolean pendingClear;
+
+    // 計測値（クライアントスレッドだけが数え、ティックごとにまとめてWhohasmendingMetricsに足す）
+    // 描画ごとの経路にはLongAdderを置かず、フィールドの加算だけにする
+    private long frameLookups;
+    private long tickHits;
+    private long tickMisses;
+
+    /**
+     * 村人1体分のラベル
+     */
+    public static class Label {
+        // データ変更時にこの村人のラベルを探すためのUUID
+        private final long uuidMsb;
+        private final long uuidLsb;
+
+        // 表示する取引テキスト（nullの場合は表示するデータなし）
+        private final Component trade;
+        // 遠くの村人に表示するコストだけのテキスト
+        private final Component cost;
+
+        // このティックで表示するもの（nullの場合は表示しない）
+        private Component tag;
+        // 既存の名前と結合したもの（名前か表示内容が変わった時だけ作り直す）
+        private Component namedTag;
+        private Component name;
+        private Component namedSource;
+
+        // ネームタグ位置（向きが変わった時だけ計算し直す）
+        private float attachmentYRot = Float.NaN;
+        private Vec3 attachment;
+
+        private Label(UUID uuid, VillagerTradeData data) {
+            this.uuidMsb = uuid.getMostSignificantBits();
+            this.uuidLsb = uuid.getLeastSignificantBits();
+            String displayName = data != null ? data.getDisplayName() : null;
+            String costText = costText(data);
+            // 表示名だけが残っていて取引がないデータ（手で編集したファイルなど）は表示しない
+            this.trade = displayName != null && !displayName.isEmpty() && costText != null ? Component.literal(displayName) : null;
+            this.cost = trade != null ? Component.literal(costText) : null;
+        }
+
+        /**
+         * 既存の名前がない場合のネームタグ
+         */
+        public Component getTag() {
+            return tag;
+        }
+
+        /**
+         * 既存の名前がある場合のネームタグ（"既存の名前 トレード内容"）
+         */
+        public Component getNamedTag() {
+            return namedTag;
+        }
+
+        /**
+         * ネームタグの表示位置
+         */
+        public Vec3 getAttachment() {
+            return attachment;
+        }
+
+        /**
+         * このティックの表示内容を計算する
+         */
+        private void update(Villager villager, NameplateLod.Level level) {
+            tag = level == NameplateLod.Level.FULL ? trade : level == NameplateLod.Level.COST_ONLY ? cost : null;
+            if (tag == null) {
+                return;
+            }
+
+            // 名前付きの村人だけ結合しておく（名前がなければ取引内容だけ）
+            Component name = villager.hasCustomName() ? villager.getDisplayName() : null;
+            if (name == null) {
+                namedTag = tag;
+            } else if (!name.equals(this.name) || namedSource != tag) {
+                this.name = name;
+                this.namedSource = tag;
+                this.namedTag = Component.empty().append(name).append(" ").append(tag);
+            }
+
+            float yRot = villager.getYRot();
+            if (attachmentYRot != yRot) {
+                attachmentYRot = yRot;
+                attachment = villager.getAttachments().getNullable(EntityAttachment.NAME_TAG, 0, yRot);
+            }
+        }
+    }
+
+    private VillagerLabelCache() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public static VillagerLabelCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 読み込み済みの村人の表示内容を計算し直す（クライアントティックごとに呼び出す）
+     */
+    public void tick(Minecraft client) {
+        flushMetrics();
+        if (pendingClear || !pendingInvalidations.isEmpty()) {
+            applyPending();
+        }
+        if (client.level == null || !VillagerDataManager.getInstance().isDisplayEnabled()) {
+            return;
+        }
+        Entity camera = client.getCameraEntity();
+        if (camera == null) {
+            return;
+        }
+
+        Entity target = client.crosshairPickEntity;
+        for (Entity entity : client.level.entitiesForRendering()) {
+            if (!(entity instanceof Villager villager)) {
+                continue;
+            }
+
+            // 読めない距離の村人はラベルを引かない（作成済みなら隠す）
+            NameplateLod.Level level = NameplateLod.select(villager.distanceToSqr(camera), villager == target);
+            Label label = level == NameplateLod.Level.NONE ? find(villager.getId()) : getOrCreate(villager);
+            if (label == null || label.trade == null) {
+                continue;
+            }
+            label.update(villager, level);
+        }
+    }
+
+    /**
+     * 遠くの村人に表示するコストだけのテキスト（"[12]"）
+     * @return 取引がない場合null
+     */
+    static String costText(VillagerTradeData data) {
+        if (data == null || data.getTrades() == null || data.getTrades().isEmpty()) {
+            return null;
+        }
+        return "[" + data.getTrades().get(0).getEmeraldCost() + "]";
+    }
+
+    /**
+     * 描画するラベルを取得（描画時に呼び出す、計算は行わない）
+     * @return このティックで表示するものがない場合null
+     */
+    public Label get(int entityId) {
+        frameLookups++;
+        Label label = find(entityId);
+        return label != null && label.tag != null ? label : null;
+    }
+
+    /**
+     * エンティティがクライアントのワールドから取り除かれた時に呼び出す（クライアントスレッドから呼ぶ）
+     */
+    public void onEntityUnload(Entity entity) {
+        if (!(entity instanceof Villager)) {
+            return;
+        }
+
+        int id = entity.getId();
+        int slot = hash(id) & mask;
+        while (labels[slot] != null) {
+            if (entityIds[slot] == id) {
+                deleteSlot(slot);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * 村人データが変わった時に、その村人のラベルを破棄する（次のティックで作り直す）
+     * 1件ごとにテーブルを走査するため、まとめて変わった時はclearを使う
+     * どのスレッドから呼んでもよい
+     */
+    public void invalidate(UUID uuid) {
+        pendingInvalidations.add(uuid);
+    }
+
+    /**
+     * 全てのキャッシュを破棄（ワールド切り替えやデータの一括反映時）
+     * どのスレッドから呼んでもよい
+     */
+    public void clear() {
+        pendingClear = true;
+    }
+
+    /**
+     * 前のティックからの計測値をまとめて足す
+     */
+    private void flushMetrics() {
+        if (frameLookups != 0) {
+            WhohasmendingMetrics.RENDER_LOOKUPS.add(frameLookups);
+            frameLookups = 0;
+        }
+        if (tickHits != 0 || tickMisses != 0) {
+            WhohasmendingMetrics.LABEL_HITS.add(tickHits);
+            WhohasmendingMetrics.LABEL_MISSES.add(tickMisses);
+            tickHits = 0;
+            tickMisses = 0;
+        }
+    }
+
+    private Label find(int entityId) {
+        int slot = hash(entityId) & mask;
+        Label label;
+        while ((label = labels[slot]) != null) {
+            if (entityIds[slot] == entityId) {
+                return label;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * 村人のラベルを取得（初めて見た村人はここで村人データから作る）
+     */
+    private Label getOrCreate(Villager villager) {
+        int id = villager.getId();
+        int slot = hash(id) & mask;
+        Label label;
+        while ((label = labels[slot]) != null) {
+            if (entityIds[slot] == id) {
+                tickHits++;
+                return label;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        tickMisses++;
+        UUID uuid = villager.getUUID();
+        label = new Label(uuid, VillagerDataManager.getInstance().getVillagerData(uuid));
+        entityIds[slot] = id;
+        labels[slot] = label;
+        if (++size > labels.length / 2) {
+            rehash(labels.length << 1);
+        }
+        return label;
+    }
+
+    /**
+     * 他のスレッドからの破棄要求を反映（クライアントスレッドから呼ぶ）
+     */
+    private void applyPending() {
+        if (pendingClear) {
+            // 先にフラグを落とし、この後に届いた要求は次回に反映する
+            pendingClear = false;
+            pendingInvalidations.clear();
+            if (size > 0) {
+                Arrays.fill(labels, null);
+                size = 0;
+            }
+            return;
+        }
+
+        UUID uuid;
+        while ((uuid = pendingInvalidations.poll()) != null) {
+            removeByUuid(uuid);
+        }
+    }
+
+    private void removeByUuid(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        for (int slot = 0; slot < labels.length; slot++) {
+            Label label = labels[slot];
+            if (label != null && label.uuidMsb == msb && label.uuidLsb == lsb) {
+                deleteSlot(slot);
+                return; // 同じUUIDのエンティティは同時に1体だけ
+            }
+        }
+    }
+
+    /**
+     * スロットを空け、後続のクラスタを詰め直す
+     */
+    private void deleteSlot(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (labels[next] != null) {
+            int home = hash(entityIds[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                entityIds[hole] = entityIds[next];
+                labels[hole] = labels[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        labels[hole] = null;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldIds = entityIds;
+        Label[] oldLabels = labels;
+        allocate(capacity);
+
+        for (int i = 0; i < oldLabels.length; i++) {
+            if (oldLabels[i] != null) {
+                int slot = hash(oldIds[i]) & mask;
+                while (labels[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                entityIds[slot] = oldIds[i];
+                labels[slot] = oldLabels[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        entityIds = new int[capacity];
+        labels = new Label[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * エンティティIDは連番なので、散らしてからスロット番号にする
+     */
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
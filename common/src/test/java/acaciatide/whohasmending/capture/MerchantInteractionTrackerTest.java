@@ -0,0 +1,53 @@
+package acaciatide.whohasmending.capture;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 話しかけたエンティティと取引画面の対応付けの確認
+ */
+class MerchantInteractionTrackerTest {
+    private static final long START = 1_000_000_000L;
+
+    private final MerchantInteractionTracker tracker = MerchantInteractionTracker.getInstance();
+
+    @Test
+    void pairsInteractionWithMerchantScreen() {
+        tracker.clear();
+        tracker.onInteract(42, START);
+        tracker.onMerchantScreenOpened(7, START + 1_000_000L);
+
+        assertEquals(42, tracker.getMerchantEntityId(7));
+        assertEquals(-1, tracker.getMerchantEntityId(8));
+    }
+
+    @Test
+    void expiresInteractionWithoutScreen() {
+        tracker.clear();
+        tracker.onInteract(42, START);
+        tracker.onMerchantScreenOpened(7, START + MerchantInteractionTracker.INTERACTION_TIMEOUT_NANOS + 1);
+
+        assertEquals(-1, tracker.getMerchantEntityId(7));
+    }
+
+    @Test
+    void otherScreenDiscardsInteraction() {
+        tracker.clear();
+        tracker.onInteract(42, START);
+        tracker.onOtherScreenOpened();
+        tracker.onMerchantScreenOpened(7, START + 1_000_000L);
+
+        assertEquals(-1, tracker.getMerchantEntityId(7));
+    }
+
+    @Test
+    void interactionIsUsedOnlyOnce() {
+        tracker.clear();
+        tracker.onInteract(42, START);
+        tracker.onMerchantScreenOpened(7, START + 1_000_000L);
+        tracker.onMerchantScreenOpened(9, START + 2_000_000L);
+
+        assertEquals(-1, tracker.getMerchantEntityId(9));
+    }
+}
@@ -0,0 +1,117 @@
+package acaciatide.whohasmending.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 壊れたバイナリファイルを開いた時に、IOException以外の例外やメモリ不足にならないかの確認
+ */
+class MappedVillagerTableTest {
+    private static final UUID VILLAGER = UUID.fromString("6f1c2a4e-93b7-4d1a-8c55-0e2f7b9d3a61");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void opensValidFile() throws IOException {
+        MappedVillagerTable table = MappedVillagerTable.open(write());
+        assertEquals(1, table.size());
+        assertEquals("minecraft:mending", table.dataAt(0).getTrades().get(0).getEnchantmentId());
+    }
+
+    @Test
+    void rejectsNegativeNameCount() throws IOException {
+        Path file = write();
+        patchInt(file, 12, -1);
+        assertThrows(IOException.class, () -> MappedVillagerTable.open(file));
+    }
+
+    @Test
+    void rejectsHugeNameCount() throws IOException {
+        Path file = write();
+        patchInt(file, 12, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> MappedVillagerTable.open(file));
+    }
+
+    @Test
+    void rejectsNegativeRecordCount() throws IOException {
+        Path file = write();
+        patchInt(file, 8, -5);
+        assertThrows(IOException.class, () -> MappedVillagerTable.open(file));
+    }
+
+    @Test
+    void rejectsNameLongerThanFile() throws IOException {
+        Path file = write();
+        patchShort(file, 16, (short) 0xffff);
+        assertThrows(IOException.class, () -> MappedVillagerTable.open(file));
+    }
+
+    @Test
+    void rejectsNameTableCutOff() throws IOException {
+        Path file = write();
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, java.util.Arrays.copyOf(bytes, 19));
+        assertThrows(IOException.class, () -> MappedVillagerTable.open(file));
+    }
+
+    @Test
+    void ignoresNameIndexOutsideTable() throws IOException {
+        Path file = write();
+        MappedVillagerTable table = MappedVillagerTable.open(file);
+        int recordOffset = (int) Files.size(file) - MappedVillagerTable.RECORD_BYTES;
+        // エンチャント名・ディメンション・エンチャントIDの番号を名前表の外にする
+        patchShort(file, recordOffset + 16, (short) 1000);
+        patchShort(file, recordOffset + 20, (short) 1000);
+        patchShort(file, recordOffset + 34, (short) 1000);
+
+        VillagerTradeData data = MappedVillagerTable.open(file).dataAt(0);
+        assertEquals(table.uuidAt(0), data.getVillagerUuid());
+        assertNull(data.getTrades().get(0).getEnchantmentName());
+        assertNull(data.getTrades().get(0).getEnchantmentId());
+        assertNull(data.getLastSeen());
+    }
+
+    @Test
+    void loadFallsBackToJsonForCorruptedFile() throws IOException {
+        Path file = write();
+        patchInt(file, 12, -1);
+
+        VillagerTradeData fallback = new VillagerTradeData(VILLAGER, "librarian");
+        Map<UUID, VillagerTradeData> loaded = VillagerBinaryStorage.load("test", file, directory.resolve("data.json"),
+                () -> Map.of(VILLAGER, fallback));
+        assertEquals(fallback, loaded.get(VILLAGER));
+    }
+
+    private Path write() throws IOException {
+        VillagerTradeData data = new VillagerTradeData(VILLAGER, "librarian");
+        data.addTrade(new TradeEntry("Enchanted Book", "Mending", "minecraft:mending", 1, 12));
+        data.setLastSeen(new VillagerPosition("minecraft:overworld", 1, 64, 2));
+        Path file = directory.resolve("data.bin");
+        VillagerBinaryStorage.save(file, Map.of(VILLAGER, data));
+        return file;
+    }
+
+    private static void patchInt(Path file, int offset, int value) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(offset, value);
+        Files.write(file, bytes);
+    }
+
+    private static void patchShort(Path file, int offset, short value) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putShort(offset, value);
+        Files.write(file, bytes);
+    }
+}
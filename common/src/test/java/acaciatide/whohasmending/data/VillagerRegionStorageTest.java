@@ -0,0 +1,46 @@
+package acaciatide.whohasmending.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 領域ごとの保存で、メモリから外す領域の位置が失われないことの確認
+ */
+class VillagerRegionStorageTest {
+    private static final UUID VILLAGER = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsInChunkMoveSavedBeforeEviction() {
+        VillagerRegionStorage storage = new VillagerRegionStorage(directory, "world", 1);
+        VillagerTradeData data = villager(new VillagerPosition("minecraft:overworld", 1, 64, 1));
+        VillagerRegion region = VillagerRegion.of(data);
+        storage.put(VILLAGER, data);
+        storage.onRegionResident(region, storage.loadRegion(region));
+
+        // 同じチャンク内の移動（離脱や領域を外す前の保存でだけ書き込まれる）
+        VillagerTradeData moved = data.withLastSeen(new VillagerPosition("minecraft:overworld", 5, 64, 6));
+        assertEquals(region, VillagerRegion.of(moved));
+        storage.snapshot(Map.of(VILLAGER, moved));
+        storage.onRegionEvicted(region);
+
+        VillagerTradeData saved = new VillagerRegionStorage(directory, "world", 1).loadRegion(region).get(VILLAGER);
+        assertEquals(moved.getLastSeen(), saved.getLastSeen());
+    }
+
+    private static VillagerTradeData villager(VillagerPosition position) {
+        VillagerTradeData data = new VillagerTradeData(VILLAGER, "librarian");
+        data.addTrade(new TradeEntry("Enchanted Book", "Mending", "minecraft:mending", 1, 12));
+        data.updateDisplayName();
+        data.setLastSeen(position);
+        return data;
+    }
+}
@@ -0,0 +1,138 @@
+package acaciatide.whohasmending.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 手書きのコーデックが従来のGson（リフレクション）と同じJSONを読み書きするかの確認
+ */
+class VillagerTradeDataCodecTest {
+    private static final Gson GSON = new Gson();
+    private static final UUID VILLAGER = UUID.fromString("6f1c2a4e-93b7-4d1a-8c55-0e2f7b9d3a61");
+
+    @Test
+    void writesSameJsonAsGson() throws IOException {
+        VillagerTradeData data = representative();
+        assertEquals(GSON.toJson(data), write(data));
+    }
+
+    @Test
+    void readsGsonOutput() throws IOException {
+        VillagerTradeData data = representative();
+        assertSameRecord(data, read(GSON.toJson(data)));
+    }
+
+    @Test
+    void roundTripsRepresentativeRecord() throws IOException {
+        VillagerTradeData data = representative();
+        String json = write(data);
+        assertSameRecord(data, read(json));
+        assertSameRecord(data, GSON.fromJson(json, VillagerTradeData.class));
+    }
+
+    @Test
+    void omitsNullNamesLikeGson() throws IOException {
+        VillagerTradeData data = new VillagerTradeData(VILLAGER, "librarian");
+        data.addTrade(new TradeEntry("Enchanted Book", null, null, 0, 5));
+
+        String json = write(data);
+        assertEquals(GSON.toJson(data), json);
+
+        VillagerTradeData read = read(json);
+        assertNull(read.getDisplayName());
+        assertNull(read.getLastSeen());
+        assertNull(read.getTrades().get(0).getEnchantmentName());
+        assertNull(read.getTrades().get(0).getEnchantmentId());
+    }
+
+    @Test
+    void readsExplicitNullsLikeGson() throws IOException {
+        String json = "{\"villagerUuid\":\"" + VILLAGER + "\",\"displayName\":null,"
+                + "\"trades\":[{\"enchantmentName\":null,\"enchantmentId\":null,\"enchantmentLevel\":1,\"emeraldCost\":9}],"
+                + "\"lastSeen\":null}";
+        assertSameRecord(GSON.fromJson(json, VillagerTradeData.class), read(json));
+    }
+
+    @Test
+    void roundTripsEmptyTrades() throws IOException {
+        VillagerTradeData data = new VillagerTradeData(VILLAGER, "librarian");
+        data.updateDisplayName();
+
+        String json = write(data);
+        assertEquals(GSON.toJson(data), json);
+        assertTrue(json.contains("\"trades\":[]"));
+        assertTrue(read(json).getTrades().isEmpty());
+    }
+
+    @Test
+    void rejectsTruncatedStrings() {
+        String json = GSON.toJson(representative());
+        // エンチャント名の途中で切れたファイル
+        String truncated = json.substring(0, json.indexOf("Mending") + 3);
+
+        assertThrows(JsonParseException.class, () -> GSON.fromJson(truncated, VillagerTradeData.class));
+        assertThrows(IOException.class, () -> read(truncated));
+    }
+
+    @Test
+    void keepsLongNamesUntilSanitized() throws IOException {
+        VillagerTradeData data = new VillagerTradeData(VILLAGER, "librarian");
+        data.addTrade(new TradeEntry("Enchanted Book", "M".repeat(150), "minecraft:mending", 1, 10));
+
+        VillagerTradeData read = read(write(data));
+        assertEquals(150, read.getTrades().get(0).getEnchantmentName().length());
+        read.sanitize();
+        assertEquals(100, read.getTrades().get(0).getEnchantmentName().length());
+    }
+
+    private static VillagerTradeData representative() {
+        VillagerTradeData data = new VillagerTradeData(VILLAGER, "librarian");
+        data.addTrade(new TradeEntry("Enchanted Book", "Mending", "minecraft:mending", 1, 12));
+        data.addTrade(new TradeEntry("Enchanted Book", "修繕 \"引用\"\n", "minecraft:mending", 1, 64));
+        data.updateDisplayName();
+        data.setLastSeen(new VillagerPosition("minecraft:overworld", -120, 64, 3071));
+        return data;
+    }
+
+    private static String write(VillagerTradeData data) throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            VillagerTradeDataCodec.write(writer, data);
+        }
+        return out.toString();
+    }
+
+    private static VillagerTradeData read(String json) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            return VillagerTradeDataCodec.read(reader);
+        }
+    }
+
+    private static void assertSameRecord(VillagerTradeData expected, VillagerTradeData actual) {
+        assertEquals(expected.getVillagerUuid(), actual.getVillagerUuid());
+        assertEquals(expected.getDisplayName(), actual.getDisplayName());
+        assertEquals(expected.getLastSeen(), actual.getLastSeen());
+        assertEquals(expected.getTrades().size(), actual.getTrades().size());
+        for (int i = 0; i < expected.getTrades().size(); i++) {
+            TradeEntry a = expected.getTrades().get(i);
+            TradeEntry b = actual.getTrades().get(i);
+            assertEquals(a.getEnchantmentName(), b.getEnchantmentName());
+            assertEquals(a.getEnchantmentId(), b.getEnchantmentId());
+            assertEquals(a.getEnchantmentLevel(), b.getEnchantmentLevel());
+            assertEquals(a.getEmeraldCost(), b.getEmeraldCost());
+        }
+    }
+}
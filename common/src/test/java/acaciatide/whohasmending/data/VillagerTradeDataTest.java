@@ -0,0 +1,81 @@
+package acaciatide.whohasmending.data;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 読み込んだデータのサニタイズの確認
+ */
+class VillagerTradeDataTest {
+
+    @Test
+    void dropsDisplayNameWhenAllTradesAreRemoved() throws IOException {
+        VillagerTradeData data = read("{\"displayName\":\"[12]Mending\",\"trades\":[null]}");
+        data.sanitize();
+
+        assertTrue(data.getTrades().isEmpty());
+        assertNull(data.getDisplayName());
+    }
+
+    @Test
+    void dropsDisplayNameForEmptyTrades() throws IOException {
+        VillagerTradeData data = read("{\"displayName\":\"[12]Mending\",\"trades\":[]}");
+        data.sanitize();
+
+        assertNull(data.getDisplayName());
+    }
+
+    @Test
+    void dropsDisplayNameForNullTrades() throws IOException {
+        VillagerTradeData data = read("{\"displayName\":\"[12]Mending\",\"trades\":null}");
+        data.sanitize();
+
+        assertTrue(data.getTrades().isEmpty());
+        assertNull(data.getDisplayName());
+    }
+
+    @Test
+    void keepsDisplayNameWithTrades() throws IOException {
+        VillagerTradeData data = read("{\"displayName\":\"[12]Mending\",\"trades\":[null,"
+                + "{\"enchantmentName\":\"Mending\",\"enchantmentLevel\":1,\"emeraldCost\":12}]}");
+        data.sanitize();
+
+        assertEquals(1, data.getTrades().size());
+        assertEquals("[12]Mending", data.getDisplayName());
+    }
+
+    @Test
+    void fingerprintFollowsTradeChanges() {
+        VillagerTradeData data = new VillagerTradeData();
+        data.addTrade(new TradeEntry("Enchanted Book", "Mending", "minecraft:mending", 1, 12));
+        long before = data.getFingerprint();
+
+        data.addTrade(new TradeEntry("Enchanted Book", "Unbreaking", "minecraft:unbreaking", 3, 20));
+        assertTrue(data.getFingerprint() != before);
+
+        data.clearTrades();
+        data.addTrade(new TradeEntry("Enchanted Book", "Mending", "minecraft:mending", 1, 12));
+        assertEquals(before, data.getFingerprint());
+    }
+
+    @Test
+    void positionCopyKeepsFingerprint() {
+        VillagerTradeData data = new VillagerTradeData();
+        data.addTrade(new TradeEntry("Enchanted Book", "Mending", "minecraft:mending", 1, 12));
+
+        assertEquals(data.getFingerprint(), data.withLastSeen(null).getFingerprint());
+    }
+
+    private static VillagerTradeData read(String json) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            return VillagerTradeDataCodec.read(reader);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package acaciatide.whohasmending.render;
+
+import acaciatide.whohasmending.data.TradeEntry;
+import acaciatide.whohasmending.data.VillagerTradeData;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 遠くの村人に表示するコストのテキストの確認
+ */
+class VillagerLabelCacheTest {
+    private static final UUID VILLAGER = UUID.fromString("6f1c2a4e-93b7-4d1a-8c55-0e2f7b9d3a61");
+
+    @Test
+    void costOfFirstTrade() {
+        VillagerTradeData data = new VillagerTradeData(VILLAGER, "librarian");
+        data.addTrade(new TradeEntry("Enchanted Book", "Mending", "minecraft:mending", 1, 12));
+        data.updateDisplayName();
+
+        assertEquals("[12]", VillagerLabelCache.costText(data));
+    }
+
+    @Test
+    void noCostWhenDisplayNameHasNoTrades() {
+        // 手で編集したファイルなど、表示名だけが残っているデータ
+        VillagerTradeData data = new VillagerTradeData(VILLAGER, "librarian");
+        data.setDisplayName("[12]Mending");
+
+        assertNull(VillagerLabelCache.costText(data));
+    }
+
+    @Test
+    void noCostWithoutData() {
+        assertNull(VillagerLabelCache.costText(null));
+    }
+}
@@ -1,24 +1,41 @@
 package acaciatide.whohasmending;
 
+import acaciatide.whohasmending.capture.VillagerPositionTracker;
+import acaciatide.whohasmending.data.FindResult;
 import acaciatide.whohasmending.data.VillagerDataManager;
 import acaciatide.whohasmending.data.VillagerDataStorage;
+import acaciatide.whohasmending.metrics.Metric;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+import acaciatide.whohasmending.render.NearbyDealsHud;
+import acaciatide.whohasmending.render.VillagerLabelCache;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientChunkEvents;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientEntityEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keymapping.v1.KeyMappingHelper;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommands;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
+import net.fabricmc.fabric.api.client.rendering.v1.hud.HudElementRegistry;
 import net.minecraft.client.KeyMapping;
 import net.minecraft.client.Minecraft;
+import net.minecraft.commands.SharedSuggestionProvider;
 import net.minecraft.network.chat.Component;
+import net.minecraft.resources.Identifier;
 import org.lwjgl.glfw.GLFW;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 /**
  * Who Has Mending クライアントエントリーポイント
  */
 public class WhohasmendingClient implements ClientModInitializer {
     
-
+    // /whm find で表示する最大件数
+    private static final int FIND_LIMIT = 10;
     
     // 前回のワールド状態
     private boolean wasInWorld = false;
@@ -74,12 +91,41 @@ public class WhohasmendingClient implements ClientModInitializer {
             
             // ワールド参加/離脱の検出
             handleWorldStateChange(client);
+            
+            // バックグラウンドで読み込んだデータの反映
+            VillagerDataManager.getInstance().tick();
+            
+            // 村人の位置をまとめて記録
+            VillagerPositionTracker.getInstance().tick(client);
+            
+            // ネームタグの表示内容を計算（描画時は計算済みの値をコピーするだけ）
+            VillagerLabelCache.getInstance().tick(client);
+            
+            // 近くのおすすめ取引パネルの更新
+            NearbyDealsHud.getInstance().tick(client);
+        });
+
+        // 近くのおすすめ取引パネルの描画
+        HudElementRegistry.addLast(Identifier.fromNamespaceAndPath(Whohasmending.MOD_ID, "nearby_deals"),
+                (graphics, deltaTracker) -> NearbyDealsHud.getInstance().render(graphics));
+
+        // エンティティがワールドから取り除かれたらネームタグのキャッシュから外す
+        ClientEntityEvents.ENTITY_UNLOAD.register((entity, level) -> {
+            VillagerLabelCache.getInstance().onEntityUnload(entity);
+        });
+
+        // チャンクの読み込み・解放に合わせて村人データを読み込む・外す（storage.engine=regionのみ）
+        ClientChunkEvents.CHUNK_LOAD.register((level, chunk) -> {
+            VillagerDataManager.getInstance().onChunkLoaded(level, chunk.getPos());
+        });
+        ClientChunkEvents.CHUNK_UNLOAD.register((level, chunk) -> {
+            VillagerDataManager.getInstance().onChunkUnloaded(level, chunk.getPos());
         });
 
         // クライアント停止時にデータを保存
         ClientLifecycleEvents.CLIENT_STOPPING.register(client -> {
             Whohasmending.LOGGER.info("Client stopping, saving data...");
-            VillagerDataManager.getInstance().onWorldLeave();
+            VillagerDataManager.getInstance().onClientStopping();
         });
         
         Whohasmending.LOGGER.info("Registered event listeners");
@@ -100,21 +146,23 @@ public class WhohasmendingClient implements ClientModInitializer {
                     })
                 )
                 .then(ClientCommands.literal("restore")
+                    .executes(context -> restoreFromBackup(context.getSource()::sendFeedback))
+                )
+                .then(ClientCommands.literal("backup")
                     .executes(context -> {
-                        boolean success = VillagerDataManager.getInstance().restoreFromBackup();
-                        String message = success 
-                            ? "§a[WhoHasMending] Data restored from backup successfully."
-                            : "§c[WhoHasMending] Failed to restore: no backup found.";
+                        boolean success = VillagerDataManager.getInstance().createManualBackup();
+                        String message = success
+                            ? "§a[WhoHasMending] Backup is being written in the background."
+                            : "§c[WhoHasMending] Cannot create backup right now (not in a world or still loading).";
                         context.getSource().sendFeedback(Component.literal(message));
                         return success ? 1 : 0;
                     })
                 )
-                .then(ClientCommands.literal("backup")
-                    .executes(context -> {
-                        VillagerDataManager.getInstance().createManualBackup();
-                        context.getSource().sendFeedback(Component.literal("§a[WhoHasMending] Backup created successfully."));
-                        return 1;
-                    })
+                .then(ClientCommands.literal("backups")
+                    .executes(context -> listBackups(context.getSource()::sendFeedback))
+                )
+                .then(ClientCommands.literal("stats")
+                    .executes(context -> showStats(context.getSource()::sendFeedback))
                 )
                 .then(ClientCommands.literal("validate")
                     .executes(context -> {
@@ -123,6 +171,19 @@ public class WhohasmendingClient implements ClientModInitializer {
                         return result.isValid() ? 1 : 0;
                     })
                 )
+                .then(ClientCommands.literal("find")
+                    .then(ClientCommands.argument("enchantment", StringArgumentType.word())
+                        .suggests((context, builder) -> SharedSuggestionProvider.suggest(
+                                VillagerDataManager.getInstance().getKnownEnchantments(), builder))
+                        .executes(context -> findVillagers(context.getSource()::sendFeedback,
+                                StringArgumentType.getString(context, "enchantment"), Integer.MAX_VALUE))
+                        .then(ClientCommands.argument("maxCost", IntegerArgumentType.integer(1, 64))
+                            .executes(context -> findVillagers(context.getSource()::sendFeedback,
+                                    StringArgumentType.getString(context, "enchantment"),
+                                    IntegerArgumentType.getInteger(context, "maxCost")))
+                        )
+                    )
+                )
             );
 
             // ショートカット: /whm サブコマンド
@@ -135,21 +196,23 @@ public class WhohasmendingClient implements ClientModInitializer {
                     })
                 )
                 .then(ClientCommands.literal("restore")
+                    .executes(context -> restoreFromBackup(context.getSource()::sendFeedback))
+                )
+                .then(ClientCommands.literal("backup")
                     .executes(context -> {
-                        boolean success = VillagerDataManager.getInstance().restoreFromBackup();
-                        String message = success 
-                            ? "§a[WhoHasMending] Data restored from backup successfully."
-                            : "§c[WhoHasMending] Failed to restore: no backup found.";
+                        boolean success = VillagerDataManager.getInstance().createManualBackup();
+                        String message = success
+                            ? "§a[WhoHasMending] Backup is being written in the background."
+                            : "§c[WhoHasMending] Cannot create backup right now (not in a world or still loading).";
                         context.getSource().sendFeedback(Component.literal(message));
                         return success ? 1 : 0;
                     })
                 )
-                .then(ClientCommands.literal("backup")
-                    .executes(context -> {
-                        VillagerDataManager.getInstance().createManualBackup();
-                        context.getSource().sendFeedback(Component.literal("§a[WhoHasMending] Backup created successfully."));
-                        return 1;
-                    })
+                .then(ClientCommands.literal("backups")
+                    .executes(context -> listBackups(context.getSource()::sendFeedback))
+                )
+                .then(ClientCommands.literal("stats")
+                    .executes(context -> showStats(context.getSource()::sendFeedback))
                 )
                 .then(ClientCommands.literal("validate")
                     .executes(context -> {
@@ -158,10 +221,85 @@ public class WhohasmendingClient implements ClientModInitializer {
                         return result.isValid() ? 1 : 0;
                     })
                 )
+                .then(ClientCommands.literal("find")
+                    .then(ClientCommands.argument("enchantment", StringArgumentType.word())
+                        .suggests((context, builder) -> SharedSuggestionProvider.suggest(
+                                VillagerDataManager.getInstance().getKnownEnchantments(), builder))
+                        .executes(context -> findVillagers(context.getSource()::sendFeedback,
+                                StringArgumentType.getString(context, "enchantment"), Integer.MAX_VALUE))
+                        .then(ClientCommands.argument("maxCost", IntegerArgumentType.integer(1, 64))
+                            .executes(context -> findVillagers(context.getSource()::sendFeedback,
+                                    StringArgumentType.getString(context, "enchantment"),
+                                    IntegerArgumentType.getInteger(context, "maxCost")))
+                        )
+                    )
+                )
             );
         });
     }
 
+    /**
+     * /whm restore: 最新のバックアップから復元（結果は読み込みが終わってから表示する）
+     */
+    private static int restoreFromBackup(Consumer<Component> feedback) {
+        boolean started = VillagerDataManager.getInstance().restoreFromBackup(restored -> {
+            String message = restored > 0
+                ? "§a[WhoHasMending] Restored " + restored + " villager records from backup."
+                : "§c[WhoHasMending] Failed to restore: no backup found.";
+            feedback.accept(Component.literal(message));
+        });
+        if (!started) {
+            feedback.accept(Component.literal("§c[WhoHasMending] Cannot restore: not in a world."));
+            return 0;
+        }
+        feedback.accept(Component.literal("§7[WhoHasMending] Restoring from backup in the background..."));
+        return 1;
+    }
+
+    /**
+     * /whm backups: 現在のワールドのバックアップを新しい順に表示（読み込みが終わってから表示する）
+     */
+    private static int listBackups(Consumer<Component> feedback) {
+        boolean started = VillagerDataManager.getInstance().listBackups(generations -> {
+            if (generations.isEmpty()) {
+                feedback.accept(Component.literal("§e[WhoHasMending] No backups found for this world."));
+                return;
+            }
+            feedback.accept(Component.literal("§6[WhoHasMending] Backups for this world (newest first):"));
+            for (int i = generations.size() - 1; i >= 0; i--) {
+                feedback.accept(Component.literal("§f" + generations.get(i).getDisplayText()));
+            }
+        });
+        if (!started) {
+            feedback.accept(Component.literal("§c[WhoHasMending] Cannot list backups: not in a world."));
+            return 0;
+        }
+        return 1;
+    }
+
+    /**
+     * /whm stats: 保存・読み込み・キャプチャ・描画の計測値を表示
+     */
+    private static int showStats(Consumer<Component> feedback) {
+        List<Metric> metrics = WhohasmendingMetrics.getAll();
+        feedback.accept(Component.literal("§6[WhoHasMending] Stats since startup:"));
+        for (Metric metric : metrics) {
+            feedback.accept(Component.literal("§7" + metric.getName() + ": §f" + metric.format()));
+        }
+        return metrics.size();
+    }
+
+    /**
+     * /whm find: エンチャント本を売る村人を安い順に表示
+     */
+    private static int findVillagers(Consumer<Component> feedback, String enchantment, int maxCost) {
+        FindResult result = VillagerDataManager.getInstance().findVillagers(enchantment, maxCost, FIND_LIMIT);
+        for (String message : result.getMessages()) {
+            feedback.accept(Component.literal(message));
+        }
+        return result.getTotalMatches();
+    }
+
     /**
      * ワールド状態の変化を検出して処理
      */
@@ -1,22 +1,40 @@
 package acaciatide.whohasmending;
 
+import acaciatide.whohasmending.capture.VillagerPositionTracker;
+import acaciatide.whohasmending.data.FindResult;
 import acaciatide.whohasmending.data.VillagerDataManager;
 import acaciatide.whohasmending.data.VillagerDataStorage;
+import acaciatide.whohasmending.metrics.Metric;
+import acaciatide.whohasmending.metrics.WhohasmendingMetrics;
+import acaciatide.whohasmending.render.NearbyDealsHud;
+import acaciatide.whohasmending.render.VillagerLabelCache;
 import com.mojang.blaze3d.platform.InputConstants;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import net.minecraft.client.KeyMapping;
 import net.minecraft.client.Minecraft;
 import net.minecraft.commands.Commands;
+import net.minecraft.commands.SharedSuggestionProvider;
 import net.minecraft.network.chat.Component;
+import net.minecraft.resources.Identifier;
+import net.minecraft.world.level.Level;
 import net.neoforged.bus.api.IEventBus;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.fml.common.Mod;
 import net.neoforged.neoforge.client.event.ClientPlayerNetworkEvent;
 import net.neoforged.neoforge.client.event.ClientTickEvent;
 import net.neoforged.neoforge.client.event.RegisterClientCommandsEvent;
+import net.neoforged.neoforge.client.event.RegisterGuiLayersEvent;
 import net.neoforged.neoforge.client.event.RegisterKeyMappingsEvent;
 import net.neoforged.neoforge.common.NeoForge;
+import net.neoforged.neoforge.event.GameShuttingDownEvent;
+import net.neoforged.neoforge.event.entity.EntityLeaveLevelEvent;
+import net.neoforged.neoforge.event.level.ChunkEvent;
 import org.lwjgl.glfw.GLFW;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 @Mod(Whohasmending.MOD_ID)
 public class WhohasmendingNeoForge {
 
@@ -43,10 +61,19 @@ public class WhohasmendingNeoForge {
             event.register(Whohasmending.toggleDisplayKey);
             Whohasmending.LOGGER.info("Registered key binding for toggle display (NeoForge)");
         }
+
+        @SubscribeEvent
+        public static void onRegisterGuiLayers(RegisterGuiLayersEvent event) {
+            // 近くのおすすめ取引パネル
+            event.registerAboveAll(Identifier.fromNamespaceAndPath(Whohasmending.MOD_ID, "nearby_deals"),
+                    (graphics, deltaTracker) -> NearbyDealsHud.getInstance().render(graphics));
+        }
     }
 
     // ゲーム内処理のハンドラ（Game Event Bus）
     public static class ForgeClientEvents {
+        // /whm find で表示する最大件数
+        private static final int FIND_LIMIT = 10;
         
         @SubscribeEvent
         public static void onClientTick(ClientTickEvent.Post event) {
@@ -59,6 +86,18 @@ public class WhohasmendingNeoForge {
                     client.gui.setOverlayMessage(Component.literal(message), false);
                 }
             }
+            
+            // バックグラウンドで読み込んだデータの反映
+            VillagerDataManager.getInstance().tick();
+            
+            // 村人の位置をまとめて記録
+            VillagerPositionTracker.getInstance().tick(client);
+            
+            // ネームタグの表示内容を計算（描画時は計算済みの値をコピーするだけ）
+            VillagerLabelCache.getInstance().tick(client);
+            
+            // 近くのおすすめ取引パネルの更新
+            NearbyDealsHud.getInstance().tick(client);
         }
 
         @SubscribeEvent
@@ -73,6 +112,36 @@ public class WhohasmendingNeoForge {
             VillagerDataManager.getInstance().onWorldLeave();
         }
 
+        @SubscribeEvent
+        public static void onEntityLeaveLevel(EntityLeaveLevelEvent event) {
+            // エンティティがクライアントのワールドから取り除かれたらネームタグのキャッシュから外す
+            if (event.getLevel().isClientSide()) {
+                VillagerLabelCache.getInstance().onEntityUnload(event.getEntity());
+            }
+        }
+
+        @SubscribeEvent
+        public static void onChunkLoad(ChunkEvent.Load event) {
+            // チャンクの読み込みに合わせて村人データを読み込む（storage.engine=regionのみ）
+            if (event.getLevel().isClientSide() && event.getLevel() instanceof Level level) {
+                VillagerDataManager.getInstance().onChunkLoaded(level, event.getChunk().getPos());
+            }
+        }
+
+        @SubscribeEvent
+        public static void onChunkUnload(ChunkEvent.Unload event) {
+            // チャンクの解放に合わせて村人データをメモリから外す
+            if (event.getLevel().isClientSide() && event.getLevel() instanceof Level level) {
+                VillagerDataManager.getInstance().onChunkUnloaded(level, event.getChunk().getPos());
+            }
+        }
+
+        @SubscribeEvent
+        public static void onGameShuttingDown(GameShuttingDownEvent event) {
+            Whohasmending.LOGGER.info("Client stopping, saving data...");
+            VillagerDataManager.getInstance().onClientStopping();
+        }
+
         @SubscribeEvent
         public static void onRegisterClientCommands(RegisterClientCommandsEvent event) {
             // コマンド /whohasmending を登録
@@ -85,21 +154,23 @@ public class WhohasmendingNeoForge {
                     })
                 )
                 .then(Commands.literal("restore")
+                    .executes(context -> restoreFromBackup(context.getSource()::sendSystemMessage))
+                )
+                .then(Commands.literal("backup")
                     .executes(context -> {
-                        boolean success = VillagerDataManager.getInstance().restoreFromBackup();
-                        String message = success 
-                            ? "§a[WhoHasMending] Data restored from backup successfully."
-                            : "§c[WhoHasMending] Failed to restore: no backup found.";
+                        boolean success = VillagerDataManager.getInstance().createManualBackup();
+                        String message = success
+                            ? "§a[WhoHasMending] Backup is being written in the background."
+                            : "§c[WhoHasMending] Cannot create backup right now (not in a world or still loading).";
                         context.getSource().sendSystemMessage(Component.literal(message));
                         return success ? 1 : 0;
                     })
                 )
-                .then(Commands.literal("backup")
-                    .executes(context -> {
-                        VillagerDataManager.getInstance().createManualBackup();
-                        context.getSource().sendSystemMessage(Component.literal("§a[WhoHasMending] Backup created successfully."));
-                        return 1;
-                    })
+                .then(Commands.literal("backups")
+                    .executes(context -> listBackups(context.getSource()::sendSystemMessage))
+                )
+                .then(Commands.literal("stats")
+                    .executes(context -> showStats(context.getSource()::sendSystemMessage))
                 )
                 .then(Commands.literal("validate")
                     .executes(context -> {
@@ -108,6 +179,19 @@ public class WhohasmendingNeoForge {
                         return result.isValid() ? 1 : 0;
                     })
                 )
+                .then(Commands.literal("find")
+                    .then(Commands.argument("enchantment", StringArgumentType.word())
+                        .suggests((context, builder) -> SharedSuggestionProvider.suggest(
+                                VillagerDataManager.getInstance().getKnownEnchantments(), builder))
+                        .executes(context -> findVillagers(context.getSource()::sendSystemMessage,
+                                StringArgumentType.getString(context, "enchantment"), Integer.MAX_VALUE))
+                        .then(Commands.argument("maxCost", IntegerArgumentType.integer(1, 64))
+                            .executes(context -> findVillagers(context.getSource()::sendSystemMessage,
+                                    StringArgumentType.getString(context, "enchantment"),
+                                    IntegerArgumentType.getInteger(context, "maxCost")))
+                        )
+                    )
+                )
             );
 
             // ショートカットコマンド /whm を登録
@@ -120,21 +204,23 @@ public class WhohasmendingNeoForge {
                     })
                 )
                 .then(Commands.literal("restore")
+                    .executes(context -> restoreFromBackup(context.getSource()::sendSystemMessage))
+                )
+                .then(Commands.literal("backup")
                     .executes(context -> {
-                        boolean success = VillagerDataManager.getInstance().restoreFromBackup();
-                        String message = success 
-                            ? "§a[WhoHasMending] Data restored from backup successfully."
-                            : "§c[WhoHasMending] Failed to restore: no backup found.";
+                        boolean success = VillagerDataManager.getInstance().createManualBackup();
+                        String message = success
+                            ? "§a[WhoHasMending] Backup is being written in the background."
+                            : "§c[WhoHasMending] Cannot create backup right now (not in a world or still loading).";
                         context.getSource().sendSystemMessage(Component.literal(message));
                         return success ? 1 : 0;
                     })
                 )
-                .then(Commands.literal("backup")
-                    .executes(context -> {
-                        VillagerDataManager.getInstance().createManualBackup();
-                        context.getSource().sendSystemMessage(Component.literal("§a[WhoHasMending] Backup created successfully."));
-                        return 1;
-                    })
+                .then(Commands.literal("backups")
+                    .executes(context -> listBackups(context.getSource()::sendSystemMessage))
+                )
+                .then(Commands.literal("stats")
+                    .executes(context -> showStats(context.getSource()::sendSystemMessage))
                 )
                 .then(Commands.literal("validate")
                     .executes(context -> {
@@ -143,8 +229,83 @@ public class WhohasmendingNeoForge {
                         return result.isValid() ? 1 : 0;
                     })
                 )
+                .then(Commands.literal("find")
+                    .then(Commands.argument("enchantment", StringArgumentType.word())
+                        .suggests((context, builder) -> SharedSuggestionProvider.suggest(
+                                VillagerDataManager.getInstance().getKnownEnchantments(), builder))
+                        .executes(context -> findVillagers(context.getSource()::sendSystemMessage,
+                                StringArgumentType.getString(context, "enchantment"), Integer.MAX_VALUE))
+                        .then(Commands.argument("maxCost", IntegerArgumentType.integer(1, 64))
+                            .executes(context -> findVillagers(context.getSource()::sendSystemMessage,
+                                    StringArgumentType.getString(context, "enchantment"),
+                                    IntegerArgumentType.getInteger(context, "maxCost")))
+                        )
+                    )
+                )
             );
             Whohasmending.LOGGER.info("Registered client commands (NeoForge)");
         }
+
+        /**
+         * /whm restore: 最新のバックアップから復元（結果は読み込みが終わってから表示する）
+         */
+        private static int restoreFromBackup(Consumer<Component> feedback) {
+            boolean started = VillagerDataManager.getInstance().restoreFromBackup(restored -> {
+                String message = restored > 0
+                    ? "§a[WhoHasMending] Restored " + restored + " villager records from backup."
+                    : "§c[WhoHasMending] Failed to restore: no backup found.";
+                feedback.accept(Component.literal(message));
+            });
+            if (!started) {
+                feedback.accept(Component.literal("§c[WhoHasMending] Cannot restore: not in a world."));
+                return 0;
+            }
+            feedback.accept(Component.literal("§7[WhoHasMending] Restoring from backup in the background..."));
+            return 1;
+        }
+
+        /**
+         * /whm backups: 現在のワールドのバックアップを新しい順に表示（読み込みが終わってから表示する）
+         */
+        private static int listBackups(Consumer<Component> feedback) {
+            boolean started = VillagerDataManager.getInstance().listBackups(generations -> {
+                if (generations.isEmpty()) {
+                    feedback.accept(Component.literal("§e[WhoHasMending] No backups found for this world."));
+                    return;
+                }
+                feedback.accept(Component.literal("§6[WhoHasMending] Backups for this world (newest first):"));
+                for (int i = generations.size() - 1; i >= 0; i--) {
+                    feedback.accept(Component.literal("§f" + generations.get(i).getDisplayText()));
+                }
+            });
+            if (!started) {
+                feedback.accept(Component.literal("§c[WhoHasMending] Cannot list backups: not in a world."));
+                return 0;
+            }
+            return 1;
+        }
+
+        /**
+         * /whm stats: 保存・読み込み・キャプチャ・描画の計測値を表示
+         */
+        private static int showStats(Consumer<Component> feedback) {
+            List<Metric> metrics = WhohasmendingMetrics.getAll();
+            feedback.accept(Component.literal("§6[WhoHasMending] Stats since startup:"));
+            for (Metric metric : metrics) {
+                feedback.accept(Component.literal("§7" + metric.getName() + ": §f" + metric.format()));
+            }
+            return metrics.size();
+        }
+
+        /**
+         * /whm find: エンチャント本を売る村人を安い順に表示
+         */
+        private static int findVillagers(Consumer<Component> feedback, String enchantment, int maxCost) {
+            FindResult result = VillagerDataManager.getInstance().findVillagers(enchantment, maxCost, FIND_LIMIT);
+            for (String message : result.getMessages()) {
+                feedback.accept(Component.literal(message));
+            }
+            return result.getTotalMatches();
+        }
     }
 }